@@ -0,0 +1,33 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+Entry point of benchmarks.jar, takes the usual JMH options and writes the results as JSON to
+jmh-result.json unless -rf or -rff are given, so runs of two versions can be compared.
+*/
+public class BenchMain {
+
+    public static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if(cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers()
+                || cmd.shouldListResultFormats()){
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if(!cmd.getResultFormat().hasValue()){
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if(!cmd.getResult().hasValue()){
+            options.result(RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+}
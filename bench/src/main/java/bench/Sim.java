@@ -0,0 +1,257 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/*
+Access to the simulator for the benchmarks.
+
+The simulator classes are in the default package, which code in a named package can not import and
+JMH does not allow benchmarks in. Their methods are looked up once as method handles held in static
+final fields, the JIT treats those as constants and inlines the calls as if they were made directly.
+*/
+final class Sim {
+
+    private static final Class<?> NETWORK = load("Network");
+    private static final Class<?> NODE = load("Node");
+    private static final Class<?> MESSAGE = load("Message");
+
+    private static final MethodHandle NEW_NETWORK = constructor(NETWORK, String.class, String.class);
+    private static final MethodHandle SET_ENGINE = method(NETWORK, "setEngine", load("Network$Engine"));
+    private static final MethodHandle SET_CLOCK = method(NETWORK, "setClock", boolean.class, int.class);
+    private static final MethodHandle SET_OPTION = method(NETWORK, "setOption", String.class);
+    private static final MethodHandle GET_NODE = method(NETWORK, "getNodeInMap", int.class);
+    private static final MethodHandle ADD_MESSAGE = method(NETWORK, "addMessage", int.class, long.class);
+    private static final MethodHandle DELIVER_MESSAGES = method(NETWORK, "deliverMessages");
+    private static final MethodHandle FIND_FULL_CYCLE = method(NETWORK, "findFullCycle");
+    private static final MethodHandle NET_SIMULATOR = method(NETWORK, "NetSimulator");
+    private static final MethodHandle GET_INDEX = method(NODE, "getIndex");
+    private static final MethodHandle RECEIVE_MSG = method(NODE, "receiveMsg", long.class);
+    private static final MethodHandle PROCESS_MSG = method(NODE, "processMsg");
+    private static final MethodHandle CLEAR_MAILBOX = method(NODE, "clearMailbox");
+    private static final MethodHandle MAKE = method(MESSAGE, "make", int.class, int.class);
+
+    private Sim(){
+    }
+
+    /**
+     * Message trace printing is part of delivery but would flood the benchmark output
+     */
+    static void quiet(){
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Writes a graph file of a ring of nodes 1..n in order, the ring edges are implicit
+     */
+    static String ringGraph(int n) throws IOException {
+        File f = File.createTempFile("ring", ".txt");
+        f.deleteOnExit();
+        try(BufferedWriter w = new BufferedWriter(new FileWriter(f))){
+            for(int i = 1; i <= n; i++){
+                w.write(i + "\n");
+            }
+        }
+        return f.getPath();
+    }
+
+    /**
+     * Writes an event file where the given node starts an election in round 1
+     */
+    static String electOne(int id) throws IOException {
+        File f = File.createTempFile("elect", ".txt");
+        f.deleteOnExit();
+        try(BufferedWriter w = new BufferedWriter(new FileWriter(f))){
+            w.write("ELECT 1 " + id + "\n");
+        }
+        return f.getPath();
+    }
+
+    static Object newNetwork(String graph, String events){
+        try{
+            return (Object) NEW_NETWORK.invokeExact(graph, events);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Single threaded engine with the virtual clock, the time measured is the simulation alone
+     */
+    static void singleVirtual(Object network){
+        try{
+            SET_ENGINE.invoke(network, enumValue("Network$Engine", "SINGLE"));
+            SET_CLOCK.invokeExact(network, true, 0);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Applies a command line option of the network, as Network.main does
+     */
+    static void option(Object network, String option){
+        try{
+            Object error = (Object) SET_OPTION.invokeExact(network, option);
+            if(error != null){
+                throw new IllegalArgumentException(option + ": " + error);
+            }
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static Object node(Object network, int id){
+        try{
+            return (Object) GET_NODE.invokeExact(network, id);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static int index(Object node){
+        try{
+            return (int) GET_INDEX.invokeExact(node);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static long message(String type, int payload){
+        try{
+            return (long) MAKE.invokeExact(MESSAGE.getField(type).getInt(null), payload);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void addMessage(Object network, int index, long msg){
+        try{
+            ADD_MESSAGE.invokeExact(network, index, msg);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void deliverMessages(Object network){
+        try{
+            DELIVER_MESSAGES.invokeExact(network);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static boolean findFullCycle(Object network){
+        try{
+            return (boolean) FIND_FULL_CYCLE.invokeExact(network);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void netSimulator(Object network){
+        try{
+            NET_SIMULATOR.invokeExact(network);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void receiveMsg(Object node, long msg){
+        try{
+            RECEIVE_MSG.invokeExact(node, msg);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void processMsg(Object node){
+        try{
+            PROCESS_MSG.invokeExact(node);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void clearMailbox(Object node){
+        try{
+            CLEAR_MAILBOX.invokeExact(node);
+        }catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    private static Class<?> load(String name){
+        try{
+            return Class.forName(name);
+        }catch(ClassNotFoundException e){
+            throw new IllegalStateException("simulator class " + name + " not on the class path", e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(String type, String name){
+        return Enum.valueOf((Class) load(type), name);
+    }
+
+    private static MethodHandle constructor(Class<?> c, Class<?>... params){
+        try{
+            Constructor<?> k = c.getDeclaredConstructor(params);
+            return MethodHandles.lookup().unreflectConstructor(open(k)).asType(
+                    MethodType.methodType(Object.class, params));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Handle to an instance or static method with the receiver and any object result typed Object,
+     * package private methods are opened with setAccessible
+     */
+    private static MethodHandle method(Class<?> c, String name, Class<?>... params){
+        try{
+            Method m = c.getDeclaredMethod(name, params);
+            return erase(MethodHandles.lookup().unreflect(open(m)));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle erase(MethodHandle h){
+        MethodType t = h.type();
+        for(int i = 0; i < t.parameterCount(); i++){
+            if(!t.parameterType(i).isPrimitive()){
+                t = t.changeParameterType(i, t.parameterType(i) == String.class ? String.class : Object.class);
+            }
+        }
+        if(!t.returnType().isPrimitive()){
+            t = t.changeReturnType(Object.class);
+        }
+        return h.asType(t);
+    }
+
+    private static <T extends AccessibleObject> T open(T member){
+        member.setAccessible(true);
+        return member;
+    }
+
+    private static RuntimeException rethrow(Throwable t){
+        if(t instanceof RuntimeException){
+            return (RuntimeException) t;
+        }
+        if(t instanceof Error){
+            throw (Error) t;
+        }
+        return new RuntimeException(t);
+    }
+}
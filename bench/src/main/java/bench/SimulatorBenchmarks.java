@@ -0,0 +1,127 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Benchmarks of the simulator hot paths over rings of nodes 1..n:
+
+- deliverMessages: one round of delivery with every node of the ring sending, includes queueing the
+  messages with addMessage and emptying the mailboxes afterwards. Nothing is printed so rings large
+  enough for several shards are delivered in parallel
+- processMsg: one node handling one FORWARD message, the node changes every call so the whole ring
+  is touched as in a real round
+- findFullCycle: search for a ring through every node, the ring order of the file is kept
+- election: a whole Chang-Roberts election started by node 1 on the single engine with the virtual
+  clock and nothing printed
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SimulatorBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Ring {
+
+        @Param({"10", "1000", "100000", "1000000"})
+        public int nodes;
+
+        Object network;
+        Object[] node; // by position in the ring
+        int[] index;
+        long[] msg; // FORWARD with the id of the node
+        long forward_max; // FORWARD with an id larger than every node, always passed on
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            Sim.quiet();
+            String graph = Sim.ringGraph(nodes);
+            network = Sim.newNetwork(graph, Sim.electOne(1));
+            Sim.option(network, "--verbosity=quiet"); // lets delivery run its shards in parallel
+            node = new Object[nodes];
+            index = new int[nodes];
+            msg = new long[nodes];
+            for(int i = 0; i < nodes; i++){
+                node[i] = Sim.node(network, i + 1);
+                index[i] = Sim.index(node[i]);
+                msg[i] = Sim.message("FORWARD", i + 1);
+            }
+            forward_max = Sim.message("FORWARD", Integer.MAX_VALUE);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Election {
+
+        // only the nodes holding a message run each round, so an election costs O(n) node steps
+        // rather than O(n^2). Building the network is part of the setup, not of the time measured
+        @Param({"10", "1000", "100000", "1000000"})
+        public int nodes;
+
+        String graph;
+        String events;
+        Object network;
+
+        @Setup(Level.Trial)
+        public void files() throws IOException {
+            Sim.quiet();
+            graph = Sim.ringGraph(nodes);
+            events = Sim.electOne(1);
+        }
+
+        @Setup(Level.Invocation)
+        public void network(){
+            network = Sim.newNetwork(graph, events);
+            Sim.singleVirtual(network);
+            Sim.option(network, "--verbosity=quiet");
+        }
+    }
+
+    @Benchmark
+    public void deliverMessages(Ring ring){
+        for(int i = 0; i < ring.nodes; i++){
+            Sim.addMessage(ring.network, ring.index[i], ring.msg[i]);
+        }
+        Sim.deliverMessages(ring.network);
+        for(int i = 0; i < ring.nodes; i++){
+            Sim.clearMailbox(ring.node[i]);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void processMsg(Ring ring){
+        Object n = ring.node[ring.next];
+        ring.next = ring.next + 1 == ring.nodes ? 0 : ring.next + 1;
+        Sim.receiveMsg(n, ring.forward_max);
+        Sim.processMsg(n);
+    }
+
+    @Benchmark
+    public boolean findFullCycle(Ring ring){
+        return Sim.findFullCycle(ring.network);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object election(Election election){
+        Sim.netSimulator(election.network);
+        return election.network;
+    }
+}
@@ -3,14 +3,15 @@
 if [ $# -lt 2 ]
 then
   echo "Please supply graph and elect files"
-  echo "./run.sh ds_graph.txt ds_elect.txt"
+  echo "./run.sh ds_graph.txt ds_elect.txt [options]"
   exit
 fi
 
-# java files not located in this directory
+# java files are in src/, built into the simulator jar by maven (see pom.xml)
+dir=$(dirname "$0")
 
 # compile java code
-javac Network.java Node.java
+mvn -q -B -f "$dir/pom.xml" -pl simulator -am package -DskipTests || exit 1
 
-# run java code with the provided arguements
-java Network $1 $2
\ No newline at end of file
+# run java code with the provided arguements, options after the two files are passed on
+java -jar "$dir/simulator/target/ring-election-1.0-SNAPSHOT.jar" "$@"
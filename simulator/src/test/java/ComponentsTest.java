@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Components split as nodes fail: the parts cut off get new labels and the rest keeps its own, and
+after any run of failures two live nodes share a label only if a path of live nodes joins them.
+*/
+public class ComponentsTest {
+
+    /**
+     * One component of all n nodes of the graph
+     */
+    static Components all(Graph g){
+        int[] nodes = new int[g.size()];
+        for(int v = 0; v < nodes.length; v++){
+            nodes[v] = v;
+        }
+        return new Components(g, nodes, nodes.length);
+    }
+
+    /**
+     * Fails node v as the network does, then splits its component
+     */
+    static int[][] fail(Graph g, Components components, int v){
+        g.fail(v);
+        return components.split(v);
+    }
+
+    @Test
+    public void aCycleStaysWhole(){
+        Graph g = CycleFinderTest.graph(6, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 0);
+        Components components = all(g);
+        assertEquals(0, fail(g, components, 2).length);
+        assertEquals(-1, components.label(2));
+        assertEquals(5, components.size(0));
+        assertEquals(1, components.live());
+    }
+
+    @Test
+    public void aPathSplitsInTwo(){
+        Graph g = CycleFinderTest.graph(5, 0, 1, 1, 2, 2, 3, 3, 4);
+        Components components = all(g);
+        int[][] parts = fail(g, components, 2);
+
+        // the part of the first neighbour keeps the label
+        assertEquals(1, parts.length);
+        int[] part = parts[0].clone();
+        Arrays.sort(part);
+        assertArrayEquals(new int[]{3, 4}, part);
+        assertEquals(0, components.label(0));
+        assertEquals(0, components.label(1));
+        assertEquals(1, components.label(3));
+        assertEquals(1, components.label(4));
+        assertEquals(2, components.size(0));
+        assertEquals(2, components.size(1));
+        assertEquals(2, components.live());
+    }
+
+    @Test
+    public void aStarSplitsIntoItsLeaves(){
+        Graph g = CycleFinderTest.graph(4, 0, 1, 0, 2, 0, 3);
+        Components components = all(g);
+        int[][] parts = fail(g, components, 0);
+
+        // parts in the order of the neighbours of the failed node
+        assertEquals(2, parts.length);
+        assertArrayEquals(new int[]{2}, parts[0]);
+        assertArrayEquals(new int[]{3}, parts[1]);
+        assertEquals(0, components.label(1));
+        assertEquals(3, components.live());
+        assertEquals(3, components.count());
+
+        // a part that fails whole leaves no component behind, its label is not reused
+        assertEquals(0, fail(g, components, 3).length);
+        assertEquals(0, components.size(2));
+        assertEquals(2, components.live());
+        assertEquals(3, components.count());
+    }
+
+    @Test
+    public void labelsFollowTheLiveLinks(){
+        Random random = new Random(11);
+        for(int trial = 0; trial < 200; trial++){
+            int n = 2 + random.nextInt(40);
+            Graph g = CycleFinderTest.random(random, n, 2.5 / n, true); // connected to start with
+            Components components = all(g);
+            int[] order = new int[n];
+            for(int i = 0; i < n; i++){
+                int j = random.nextInt(i + 1);
+                order[i] = order[j];
+                order[j] = i;
+            }
+            for(int i = 0; i < n - 1; i++){
+                int v = order[i];
+                int before = components.count();
+                for(int[] part : fail(g, components, v)){
+                    for(int w : part){
+                        assertTrue(components.label(w) >= before, "a part gets a new label");
+                    }
+                }
+                assertConnectedAsLabelled(g, components, "trial " + trial + " after failing " + v);
+            }
+        }
+    }
+
+    /**
+     * Two live nodes have the same label exactly if a search over live links from one reaches the
+     * other, and the sizes add up
+     */
+    static void assertConnectedAsLabelled(Graph g, Components components, String where){
+        int n = g.size();
+        int[] reached = new int[n];
+        Arrays.fill(reached, -1);
+        int[] queue = new int[n];
+        int[] size = new int[components.count()];
+        boolean[] used = new boolean[components.count()];
+        int live = 0;
+        for(int s = 0; s < n; s++){
+            if(!g.isAlive(s) || reached[s] >= 0){
+                continue;
+            }
+            live++;
+            assertTrue(components.label(s) >= 0, where);
+            assertFalse(used[components.label(s)], where + ", two components share label " + components.label(s));
+            used[components.label(s)] = true;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = s;
+            reached[s] = s;
+            while(head < tail){
+                int x = queue[head++];
+                assertEquals(components.label(s), components.label(x), where);
+                size[components.label(x)]++;
+                for(int e = 0; e < g.degree(x); e++){
+                    int y = g.neighbour(x, e);
+                    if(g.isAlive(y) && reached[y] < 0){
+                        reached[y] = s;
+                        queue[tail++] = y;
+                    }
+                }
+            }
+        }
+        for(int c = 0; c < components.count(); c++){
+            assertEquals(size[c], components.size(c), where + ", size of " + c);
+        }
+        assertEquals(live, components.live(), where);
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+The searches of CycleFinder run one at a time: depth first, rotation-extension and the bitmask DP
+must agree on whether a graph has a Hamiltonian cycle, and every cycle they give must be one.
+*/
+public class CycleFinderTest {
+
+    private static final int[] SEARCHES = {CycleFinder.DFS, CycleFinder.ROTATIONS, CycleFinder.DP};
+
+    /**
+     * Graph of n nodes with the given undirected links, as pairs
+     */
+    static Graph graph(int n, int... links){
+        int[] from = new int[links.length];
+        int[] to = new int[links.length];
+        for(int i = 0; i < links.length; i += 2){
+            from[i] = links[i];
+            to[i] = links[i + 1];
+            from[i + 1] = links[i + 1];
+            to[i + 1] = links[i];
+        }
+        return new Graph(n, from, to, links.length);
+    }
+
+    /**
+     * Random graph of n nodes, with a hidden ring through all of them if ring is set
+     */
+    static Graph random(Random random, int n, double p, boolean ring){
+        List<Integer> links = new ArrayList<Integer>();
+        int[] order = new int[n];
+        for(int i = 0; i < n; i++){
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        for(int i = 0; ring && i < n; i++){
+            links.add(order[i]);
+            links.add(order[(i + 1) % n]);
+        }
+        for(int v = 0; v < n; v++){
+            for(int w = v + 1; w < n; w++){
+                if(random.nextDouble() < p){
+                    links.add(v);
+                    links.add(w);
+                }
+            }
+        }
+        return graph(n, links.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    static CycleFinder finder(Graph g, int search, long budget){
+        BitSet members = new BitSet();
+        members.set(0, g.size());
+        CycleFinder finder = new CycleFinder(g.offsets(), g.targets(), members);
+        finder.setSearches(search);
+        finder.setTimeBudget(budget);
+        return finder;
+    }
+
+    /**
+     * Fails unless cycle visits every node of g once, starting at start, along links of g
+     */
+    static void assertCycle(Graph g, int start, int[] cycle){
+        assertNotNull(cycle);
+        assertEquals(g.size(), cycle.length);
+        assertEquals(start, cycle[0]);
+        BitSet seen = new BitSet();
+        for(int i = 0; i < cycle.length; i++){
+            assertFalse(seen.get(cycle[i]), "node " + cycle[i] + " visited twice");
+            seen.set(cycle[i]);
+            int next = cycle[(i + 1) % cycle.length];
+            assertTrue(g.hasEdge(cycle[i], next), "no link " + cycle[i] + " " + next);
+        }
+    }
+
+    @Test
+    public void everySearchFindsAHiddenRing(){
+        Random random = new Random(6);
+        for(int round = 0; round < 40; round++){
+            int n = 4 + random.nextInt(CycleFinder.DP_LIMIT - 3);
+            Graph g = random(random, n, 0.15, true);
+            int start = random.nextInt(n);
+            for(int search : SEARCHES){
+                CycleFinder finder = finder(g, search, 5000);
+                assertCycle(g, start, finder.find(start));
+                assertFalse(finder.timedOut());
+            }
+        }
+    }
+
+    @Test
+    public void depthFirstAndDPAgreeOnRandomGraphs(){
+        Random random = new Random(16);
+        int with = 0;
+        for(int round = 0; round < 200; round++){
+            int n = 3 + random.nextInt(CycleFinder.DP_LIMIT - 2);
+            Graph g = random(random, n, 0.3, false);
+            CycleFinder dfs = finder(g, CycleFinder.DFS, 5000);
+            CycleFinder dp = finder(g, CycleFinder.DP, 5000);
+            int[] a = dfs.find(0);
+            int[] b = dp.find(0);
+            assertFalse(dfs.timedOut());
+            assertEquals(a != null, b != null, "graph " + round + " of " + n + " nodes");
+            if(a != null){
+                with++;
+                assertCycle(g, 0, a);
+                assertCycle(g, 0, b);
+                assertCycle(g, 0, finder(g, CycleFinder.ROTATIONS, 5000).find(0));
+            }
+        }
+        assertTrue(with > 20 && with < 180, "the graphs should be a mix, " + with + " had a ring");
+    }
+
+    @Test
+    public void noSearchFindsARingInThePetersenGraph(){
+        Graph petersen = graph(10, 0, 1, 1, 2, 2, 3, 3, 4, 4, 0, 0, 5, 1, 6, 2, 7, 3, 8, 4, 9,
+                5, 7, 7, 9, 9, 6, 6, 8, 8, 5);
+        for(int search : SEARCHES){
+            CycleFinder finder = finder(petersen, search, 200);
+            assertNull(finder.find(0));
+            // rotation-extension can not prove there is no ring, it runs out of time
+            assertEquals(search == CycleFinder.ROTATIONS, finder.timedOut());
+        }
+    }
+
+    @Test
+    public void aPathIsNotARing(){
+        Graph path = graph(5, 0, 1, 1, 2, 2, 3, 3, 4);
+        assertNull(finder(path, CycleFinder.DFS | CycleFinder.ROTATIONS | CycleFinder.DP, 200).find(2));
+    }
+
+    @Test
+    public void theDefaultSearchFindsLargeRings(){
+        Random random = new Random(60);
+        Graph g = random(random, 2000, 2.0 / 2000, true);
+        BitSet members = new BitSet();
+        members.set(0, g.size());
+        CycleFinder finder = new CycleFinder(g.offsets(), g.targets(), members);
+        assertCycle(g, 7, finder.find(7));
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.*;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Hirschberg-Sinclair elections, and the packing of the phase, hop count and direction of its probes
+into the aux bits of a message, which once overflowed on rings of 2^22 nodes.
+*/
+public class HirschbergSinclairTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void probesOfEveryPhaseFitAndComeBackOut(){
+        for(int k = 0; (1 << k) <= HirschbergSinclair.MAX_RING; k++){
+            int[] hops = {0, 1, (1 << k) / 2, (1 << k) - 1}; // a phase k probe has gone below 2^k hops
+            for(int h : hops){
+                if(h >= 1 << k){
+                    continue;
+                }
+                for(int dir = 0; dir < 2; dir++){
+                    int aux = HirschbergSinclair.probe(dir, k, h);
+                    assertEquals(0, aux >>> Message.AUX_BITS, "phase " + k + " hops " + h);
+                    assertEquals(dir, aux & 1);
+                    assertEquals(k, HirschbergSinclair.phase(aux));
+                    assertEquals(h, HirschbergSinclair.hops(aux));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void electsTheSameLeadersAsChangRoberts() throws Exception {
+        assertEquals(NetworkTest.ELECT_LOG,
+                NetworkTest.run(NetworkTest.GRAPH, NetworkTest.ELECT, "--algorithm=hs", "--engine=single"));
+        assertEquals(NetworkTest.FAIL_LOG,
+                NetworkTest.run(NetworkTest.GRAPH, NetworkTest.FAIL, "--algorithm=hs", "--engine=single"));
+    }
+
+    @Test
+    public void electsTheLargestIdOnALargeRing() throws Exception {
+        String ring = NetworkTest.ring(dir, 100000);
+        String events = NetworkTest.file(dir, "events.txt", "ELECT 1 17 50000");
+        assertEquals("Part A\nLeader Node 100000\nsimulation completed\n",
+                NetworkTest.run(ring, events, "--algorithm=hs", "--engine=single"));
+    }
+
+    @Test
+    public void refusesARingLargerThanItCanCount() throws Exception {
+        String ring = NetworkTest.ring(dir, 9);
+        String events = NetworkTest.file(dir, "events.txt", "ELECT 1 3");
+        Network net = NetworkTest.network(ring, events, new StringWriter());
+        net.setAlgorithm(new HirschbergSinclair(){
+            @Override
+            public int maxRingSize(){
+                return 8;
+            }
+        });
+        net.NetSimulator();
+        assertEquals(0, net.getLeaderCount());
+    }
+}
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Packing of messages into a long (see Message), the aux bits must not spill into the type.
+*/
+public class MessageTest {
+
+    @Test
+    public void fieldsComeBackOut(){
+        int[] payloads = {0, 1, -1, 20, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        int[] auxes = {0, 1, 12345, (1 << Message.AUX_BITS) - 1};
+        for(int type = Message.START_ELECT; type <= Message.FLOOD; type++){
+            for(int payload : payloads){
+                for(int aux : auxes){
+                    long msg = Message.make(type, aux, payload);
+                    assertEquals(type, Message.type(msg));
+                    assertEquals(aux, Message.aux(msg));
+                    assertEquals(payload, Message.payload(msg));
+                    assertNotEquals(Message.NONE, msg);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void auxThatDoesNotFitIsRejected(){
+        assertThrows(IllegalArgumentException.class, () -> Message.make(Message.PROBE, 1 << Message.AUX_BITS, 5));
+        assertThrows(IllegalArgumentException.class, () -> Message.make(Message.LEADER, -1, 5));
+    }
+
+    @Test
+    public void textForm(){
+        assertEquals("FORWARD 20", Message.toString(Message.make(Message.FORWARD, 20)));
+        assertEquals("LEADER 18 aux 3", Message.toString(Message.make(Message.LEADER, 3, 18)));
+    }
+}
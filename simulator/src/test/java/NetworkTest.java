@@ -0,0 +1,137 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Runs of the whole simulator on the graph and event files at the top of the repository, the log.txt
+they write is the one the original simulator wrote. Only the last failure of ds_fail.txt differs:
+nodes 1, 16 and 18 have no cycle through them, the original left them without a leader where they
+now elect one on a ring along a depth first walk (see Network.ringFor).
+
+- run() is shared by the other tests: a network of a graph and event file with the given options, on
+  the virtual clock with the console discarded, returning what it wrote to log.txt. network() makes
+  such a network for a test to drive, file() and ring() write the graphs and events a test makes up
+*/
+public class NetworkTest {
+
+    static final String GRAPH = "../ds_graph.txt";
+    static final String ELECT = "../ds_elect.txt";
+    static final String FAIL = "../ds_fail.txt";
+
+    static final String ELECT_LOG = "Part A\nLeader Node 20\nsimulation completed\n";
+    static final String FAIL_LOG = "Part A\nLeader Node 20\n\nPart B\n" + "Leader Node 18\n".repeat(6)
+            + "simulation completed\n";
+
+    @TempDir
+    Path dir;
+
+    /**
+     * log.txt of a run of the graph and event files with the given options
+     */
+    static String run(String graph, String events, String... options) throws Exception {
+        StringWriter log = new StringWriter();
+        Network net = network(graph, events, log);
+        assertNull(net.setOption("--clock=virtual"));
+        for(String option : options){
+            assertNull(net.setOption(option), option);
+        }
+        net.NetSimulator();
+        return log.toString();
+    }
+
+    /**
+     * Network of the graph and event files writing log.txt to log, with the console discarded
+     */
+    static Network network(String graph, String events, StringWriter log) throws IOException {
+        Network net = new Network(graph, events, new BufferedWriter(log));
+        net.setConsole(new PrintStream(OutputStream.nullOutputStream()));
+        net.setVerbosity(Network.Verbosity.QUIET);
+        return net;
+    }
+
+    /**
+     * Writes the lines to a new file in dir, returns its path
+     */
+    static String file(Path dir, String name, String... lines) throws IOException {
+        Path f = dir.resolve(name);
+        Files.write(f, (String.join("\n", lines) + "\n").getBytes());
+        return f.toString();
+    }
+
+    /**
+     * Graph file of a ring of n nodes with ids 1..n in order, each linked to the nodes either side
+     */
+    static String ring(Path dir, int n) throws IOException {
+        String[] lines = new String[n];
+        for(int i = 0; i < n; i++){
+            lines[i] = (i + 1) + " " + ((i + n - 1) % n + 1) + " " + ((i + 1) % n + 1);
+        }
+        return file(dir, "ring.txt", lines);
+    }
+
+    @Test
+    public void electsTheLargestId() throws Exception {
+        assertEquals(ELECT_LOG, run(GRAPH, ELECT, "--engine=single"));
+        assertEquals(ELECT_LOG, run(GRAPH, ELECT, "--engine=threaded"));
+    }
+
+    @Test
+    public void electsAgainAfterEachFailure() throws Exception {
+        assertEquals(FAIL_LOG, run(GRAPH, FAIL, "--engine=single"));
+        assertEquals(FAIL_LOG, run(GRAPH, FAIL, "--engine=threaded"));
+    }
+
+    @Test
+    public void electsInEveryPartOfASplit() throws Exception {
+        // the election of the first failure is still going round when the second splits the ring
+        String graph = file(dir, "graph.txt", "1 2 3", "2 1 3", "3 2 1 4", "4 3 5", "5 4 6 7", "6 5 7", "7 6 5 1");
+        String events = file(dir, "events.txt", "ELECT 5 2", "FAIL 20 4", "FAIL 40 1", "ELECT 60 2 6");
+        for(String algorithm : new String[]{"cr", "hs"}){
+            for(String engine : new String[]{"single", "threaded", "async"}){
+                String log = run(graph, events, "--algorithm=" + algorithm, "--engine=" + engine);
+                assertTrue(log.contains("Leader Node 3 Component 2"), algorithm + " " + engine + ":\n" + log);
+                assertTrue(log.contains("Leader Node 7 Component 1"), algorithm + " " + engine + ":\n" + log);
+            }
+        }
+    }
+
+    @Test
+    public void electsInAComponentWithNoCycle() throws Exception {
+        // once 1 fails 6 hangs off 5, the ring goes along a depth first walk instead
+        String graph = file(dir, "graph.txt", "1 2 6", "2 1 3 4 5", "3 2 4", "4 3 5 2", "5 4 6 2", "6 5 1");
+        String events = file(dir, "events.txt", "FAIL 5 1", "ELECT 40 3");
+        for(String engine : new String[]{"single", "threaded"}){
+            assertEquals("Part A\n\nPart B\nLeader Node 6\nLeader Node 6\nsimulation completed\n",
+                    run(graph, events, "--engine=" + engine), engine);
+        }
+    }
+
+    @Test
+    public void electsAgainWhenTheLeaderFailsMidElection() throws Exception {
+        // 200 fails while its LEADER (cr) or its probes (hs) are still going round
+        String ring = ring(dir, 200);
+        String events = file(dir, "events.txt", "ELECT 1 5", "FAIL 450 200");
+        for(String engine : new String[]{"single", "threaded", "async"}){
+            assertEquals("Part A\nLeader Node 200\n\nPart B\nLeader Node 199\nsimulation completed\n",
+                    run(ring, events, "--algorithm=cr", "--engine=" + engine), "cr " + engine);
+            assertEquals("Part A\n\nPart B\nLeader Node 199\nsimulation completed\n",
+                    run(ring, events, "--algorithm=hs", "--engine=" + engine), "hs " + engine);
+        }
+    }
+
+    @Test
+    public void rejectsOptionValuesOutOfRange() throws Exception {
+        Network net = new Network(GRAPH, ELECT, new BufferedWriter(new StringWriter()));
+        assertNotNull(net.setOption("--metrics-every=-1"));
+        assertNull(net.setOption("--metrics-every=0"));
+        assertNotNull(net.setOption("--ring-cache-size=0"));
+        assertNotNull(net.setOption("--ring-cache-size=-5"));
+        assertNotNull(net.setOption("--ring-cache-size=" + (1L << 44)));
+        assertNull(net.setOption("--ring-cache-size=64"));
+    }
+}
@@ -0,0 +1,92 @@
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Entries of the ring cache read back as they were written: a ring only if it is still a cycle through
+the nodes searched, and no ring only for a graph of the same size and a search with no more time.
+*/
+public class RingCacheTest {
+
+    @TempDir
+    Path dir;
+
+    // a ring of 6 nodes with a chord 0-3
+    static final Graph G = CycleFinderTest.graph(6, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 0, 0, 3);
+    static final int[] NODES = {0, 1, 2, 3, 4, 5};
+
+    RingCache cache() throws Exception {
+        return new RingCache(dir.toString(), RingCache.DEFAULT_LIMIT_BYTES);
+    }
+
+    @Test
+    public void aRingComesBack() throws Exception {
+        RingCache cache = cache();
+        int[] ring = {0, 1, 2, 3, 4, 5};
+        assertNull(cache.get(1, NODES, G.offsets(), G.targets(), 100));
+        cache.put(1, NODES, G.offsets(), ring, -1);
+        assertArrayEquals(ring, cache.get(1, NODES, G.offsets(), G.targets(), 100));
+        assertNull(cache.get(2, NODES, G.offsets(), G.targets(), 100));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+
+        // another run sharing the directory
+        assertArrayEquals(ring, cache().get(1, NODES, G.offsets(), G.targets(), 100));
+    }
+
+    @Test
+    public void aRingThatIsNoLongerACycleIsNotUsed() throws Exception {
+        RingCache cache = cache();
+        cache.put(1, NODES, G.offsets(), new int[]{0, 2, 1, 3, 4, 5}, -1); // 0 and 2 are not linked
+        assertNull(cache.get(1, NODES, G.offsets(), G.targets(), 100));
+        int[] five = {0, 1, 2, 3, 4};
+        cache.put(3, five, G.offsets(), new int[]{0, 1, 2, 3, 4}, -1); // 4 and 0 are not linked
+        assertNull(cache.get(3, five, G.offsets(), G.targets(), 100));
+    }
+
+    @Test
+    public void noRingComesBackForTheSameSearch() throws Exception {
+        RingCache cache = cache();
+        int[] some = {1, 2, 4};
+        cache.put(1, some, G.offsets(), null, -1);
+        assertSame(RingCache.NONE, cache.get(1, some, G.offsets(), G.targets(), 100));
+
+        // the key is the same but the graph or the search is not
+        Graph more = CycleFinderTest.graph(6, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 0, 0, 3, 1, 4);
+        assertNull(cache.get(1, some, more.offsets(), more.targets(), 100));
+        Graph bigger = CycleFinderTest.graph(7, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 0, 0, 3);
+        assertNull(cache.get(1, some, bigger.offsets(), bigger.targets(), 100));
+        assertNull(cache.get(1, new int[]{1, 2, 4, 5}, G.offsets(), G.targets(), 100));
+    }
+
+    @Test
+    public void aSearchThatGaveUpOnlyAnswersOnesWithNoMoreTime() throws Exception {
+        RingCache cache = cache();
+        cache.put(1, NODES, G.offsets(), null, 50);
+        assertSame(RingCache.GAVE_UP, cache.get(1, NODES, G.offsets(), G.targets(), 50));
+        assertSame(RingCache.GAVE_UP, cache.get(1, NODES, G.offsets(), G.targets(), 10));
+        assertNull(cache.get(1, NODES, G.offsets(), G.targets(), 51));
+
+        // the longer search finds the ring and replaces the entry
+        int[] ring = {0, 1, 2, 3, 4, 5};
+        cache.put(1, NODES, G.offsets(), ring, -1);
+        assertArrayEquals(ring, cache.get(1, NODES, G.offsets(), G.targets(), 51));
+    }
+
+    @Test
+    public void graphsThatDifferHashApart(){
+        int[] ids = {1, 2, 3, 4, 5, 6};
+        long h = RingCache.hash(ids, ids.length, G.offsets(), G.targets());
+        assertEquals(h, RingCache.hash(ids.clone(), ids.length, G.offsets().clone(), G.targets().clone()));
+
+        // ids 0, 31 and 1, 0 summed to the same h * 31 + id hash
+        assertNotEquals(RingCache.hash(new int[]{0, 31}, 2, new int[]{0, 0, 0}, new int[0]),
+                RingCache.hash(new int[]{1, 0}, 2, new int[]{0, 0, 0}, new int[0]));
+        assertNotEquals(h, RingCache.hash(new int[]{1, 2, 3, 4, 6, 5}, ids.length, G.offsets(), G.targets()));
+        Graph other = CycleFinderTest.graph(6, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 0, 1, 4);
+        assertNotEquals(h, RingCache.hash(ids, ids.length, other.offsets(), other.targets()));
+    }
+}
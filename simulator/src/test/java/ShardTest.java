@@ -0,0 +1,67 @@
+import java.io.StringWriter;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Delivery split into shards: how the nodes are split must not change a run, nor must the engine
+that runs them, and the split must not depend on the machine.
+*/
+public class ShardTest {
+
+    @TempDir
+    Path dir;
+
+    private String graph;
+    private String events;
+
+    @BeforeEach
+    public void generate() throws Exception {
+        graph = dir.resolve("grid.txt").toString();
+        events = dir.resolve("events.txt").toString();
+        Generator.graph(graph, 400, "smallworld", 6, 0.1, true, 16);
+        Generator.events(events, graph, 12, 1210, 0.3, 2, 16);
+    }
+
+    @Test
+    public void shardsAndEnginesGiveTheSameLog() throws Exception {
+        for(String algorithm : new String[]{"cr", "hs"}){
+            String option = "--algorithm=" + algorithm;
+            String log = NetworkTest.run(graph, events, option, "--engine=single", "--shards=1");
+            assertTrue(log.split("Leader Node").length > 5, log);
+            assertEquals(log, NetworkTest.run(graph, events, option, "--engine=single", "--shards=3"));
+            assertEquals(log, NetworkTest.run(graph, events, option, "--engine=single", "--shards=400"));
+            assertEquals(log, NetworkTest.run(graph, events, option, "--engine=threaded", "--shards=7"));
+            assertEquals(log, NetworkTest.run(graph, events, option, "--engine=async", "--shards=5"));
+        }
+    }
+
+    @Test
+    public void theDefaultShardsOnlyDependOnTheNodes() throws Exception {
+        String events = NetworkTest.file(dir, "elect.txt", "ELECT 1 1");
+        assertEquals(3, NetworkTest.network(NetworkTest.ring(dir, 3 * 4096), events, new StringWriter()).getShards());
+        assertEquals(16, NetworkTest.network(NetworkTest.ring(dir, 20 * 4096), events, new StringWriter()).getShards());
+    }
+
+    @Test
+    public void aResumedRunKeepsTheShardsOfItsCheckpoint() throws Exception {
+        String checkpoint = dir.resolve("checkpoint.bin").toString();
+        String log = NetworkTest.run(graph, events, "--engine=single", "--shards=5");
+        NetworkTest.run(graph, events, "--engine=single", "--shards=5", "--checkpoint=" + checkpoint,
+                "--checkpoint-every=500", "--max-rounds=4000");
+
+        StringWriter written = new StringWriter();
+        Network resumed = NetworkTest.network(graph, events, written);
+        assertNull(resumed.setOption("--engine=single"));
+        assertNull(resumed.setOption("--clock=virtual"));
+        assertNull(resumed.setOption("--resume=" + checkpoint));
+        assertEquals(1, resumed.getShards());
+        resumed.NetSimulator();
+        assertEquals(5, resumed.getShards());
+        assertEquals(log, written.toString());
+    }
+}
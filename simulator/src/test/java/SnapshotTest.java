@@ -0,0 +1,64 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+A run stopped after a checkpoint and resumed from it writes the log.txt of a run that never stopped,
+whichever round the checkpoint was taken in: in the middle of an election, in the one a failure
+started or after the last event.
+*/
+public class SnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * log.txt of a run that stops at round stop with a checkpoint every few rounds, then goes on from
+     * the last of them
+     */
+    String resumed(String graph, String events, int every, int stop, String... options) throws Exception {
+        String checkpoint = dir.resolve("checkpoint.bin").toString();
+        Files.deleteIfExists(dir.resolve("checkpoint.bin"));
+        String[] first = new String[options.length + 3];
+        System.arraycopy(options, 0, first, 0, options.length);
+        first[options.length] = "--checkpoint=" + checkpoint;
+        first[options.length + 1] = "--checkpoint-every=" + every;
+        first[options.length + 2] = "--max-rounds=" + stop;
+        NetworkTest.run(graph, events, first);
+        assertTrue(Files.exists(dir.resolve("checkpoint.bin")), "no checkpoint by round " + stop);
+
+        String[] second = new String[options.length + 1];
+        System.arraycopy(options, 0, second, 0, options.length);
+        second[options.length] = "--resume=" + checkpoint;
+        return NetworkTest.run(graph, events, second);
+    }
+
+    @Test
+    public void resumesTheFailuresWhereTheyStopped() throws Exception {
+        for(String algorithm : new String[]{"cr", "hs"}){
+            for(String engine : new String[]{"single", "threaded"}){
+                String[] options = {"--algorithm=" + algorithm, "--engine=" + engine};
+                String full = NetworkTest.run(NetworkTest.GRAPH, NetworkTest.FAIL, options);
+                for(int stop : new int[]{60, 120, 170, 260, 410}){
+                    assertEquals(full, resumed(NetworkTest.GRAPH, NetworkTest.FAIL, 7, stop, options),
+                            algorithm + " " + engine + " stopped at " + stop);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resumesAnElectionOnALargeRing() throws Exception {
+        String ring = NetworkTest.ring(dir, 2000);
+        String events = NetworkTest.file(dir, "events.txt", "ELECT 1 5 1500", "FAIL 3000 2000", "ELECT 3001 7");
+        for(String algorithm : new String[]{"cr", "hs"}){
+            String full = NetworkTest.run(ring, events, "--algorithm=" + algorithm, "--engine=single");
+            assertEquals(full, resumed(ring, events, 500, 3400, "--algorithm=" + algorithm, "--engine=single"),
+                    algorithm);
+        }
+    }
+}
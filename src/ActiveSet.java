@@ -0,0 +1,100 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/*
+Set of ring positions of the nodes that run next round (see Network), listed in ascending order so
+the nodes run in ring order.
+
+- add() is O(1), positions added since the list was last read are sorted and merged into it when it
+  is next read, so a round costs O(k log k) in the k nodes added rather than O(ring size)
+- only used by the network thread
+*/
+public class ActiveSet {
+
+    private boolean[] member = new boolean[64]; // by position, a BitSet rescans its words when the top bit is cleared
+    private int[] list = new int[16]; // positions in ascending order
+    private int size = 0;
+    private int[] added = new int[16]; // positions not yet merged into list
+    private int added_count = 0;
+    private int[] merged = new int[16];
+
+    public void add(int p){
+        if(p >= member.length){
+            member = Arrays.copyOf(member, Math.max(p + 1, member.length * 2));
+        }
+        if(member[p]){
+            return;
+        }
+        member[p] = true;
+        if(added_count == added.length){
+            added = Arrays.copyOf(added, added_count * 2);
+        }
+        added[added_count++] = p;
+    }
+
+    public boolean isEmpty(){
+        return size == 0 && added_count == 0;
+    }
+
+    public void clear(){
+        Arrays.fill(member, false);
+        size = 0;
+        added_count = 0;
+    }
+
+    /**
+     * Number of positions in the set, position(i) for i below it are the positions in order
+     */
+    public int size(){
+        merge();
+        return size;
+    }
+
+    public int position(int i){
+        return list[i];
+    }
+
+    /**
+     * Removes the positions the test is true for
+     */
+    public void removeIf(IntPredicate test){
+        merge();
+        int kept = 0;
+        for(int i = 0; i < size; i++){
+            int p = list[i];
+            if(test.test(p)){
+                member[p] = false;
+            }else{
+                list[kept++] = p;
+            }
+        }
+        size = kept;
+    }
+
+    private void merge(){
+        if(added_count == 0){
+            return;
+        }
+        Arrays.sort(added, 0, added_count);
+        if(merged.length < size + added_count){
+            merged = new int[Math.max(size + added_count, merged.length * 2)];
+        }
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while(i < size && j < added_count){
+            merged[k++] = list[i] < added[j] ? list[i++] : added[j++];
+        }
+        while(i < size){
+            merged[k++] = list[i++];
+        }
+        while(j < added_count){
+            merged[k++] = added[j++];
+        }
+        int[] t = list;
+        list = merged;
+        merged = t;
+        size = k;
+        added_count = 0;
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+Runs many independent simulations in parallel and writes one summary of them all:
+
+    java Batch <scenario file> [options]
+    java Batch --generate=<n> [options]
+
+- a scenario file has one simulation per line: graph file, event file and Network options for it,
+  e.g. "ds_graph.txt ds_fail.txt --algorithm=hs". Blank lines and lines starting with # are skipped
+- --generate=n makes n scenarios with Generator, scenario i uses seed + i for its graph and events
+  and the files are deleted once it has run
+- scenarios run on a work-stealing ForkJoinPool, each on the single engine with the virtual clock
+  and writing no files, whatever its options say: log.txt is discarded and --trace, --metrics,
+  --checkpoint and --ring-cache are ignored, as scenarios running at once would write over each
+  other's files. Give --max-rounds=n so a scenario that never settles can not hold up the batch
+- the summary has one row per scenario in scenario order: rounds, messages, the leaders elected and
+  the rounds each election took, as CSV or JSON
+*/
+public class Batch {
+
+    /**
+     * One simulation and what came of it
+     */
+    static class Scenario {
+        final int number;
+        final String graph; // "generated" for generated scenarios
+        final String events;
+        final String[] options;
+        final long seed; // for generated scenarios, -1 otherwise
+
+        // results
+        String status = "not run";
+        int nodes;
+        int rounds;
+        long messages;
+        int[] leaders = new int[0];
+        int[] election_rounds = new int[0];
+        double ms;
+
+        Scenario(int number, String graph, String events, String[] options, long seed){
+            this.number = number;
+            this.graph = graph;
+            this.events = events;
+            this.options = options;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * Settings of the generated scenarios, see Generator.main for their meaning
+     */
+    static class Generated {
+        int nodes = 1000;
+        String topology = "random";
+        int degree = 4;
+        double rewire = 0.1;
+        long events = 10;
+        int gap = -1;
+        double fail = 0.1;
+        int initiators = 1;
+    }
+
+    /**
+     * Splits the scenarios in halves until one is left, idle workers steal the halves not yet started
+     */
+    static class Run extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Scenario[] scenarios;
+        private final Generated generated;
+        private final int lo;
+        private final int hi;
+
+        Run(Scenario[] scenarios, Generated generated, int lo, int hi){
+            this.scenarios = scenarios;
+            this.generated = generated;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute(){
+            if(hi - lo == 1){
+                run(scenarios[lo], generated);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Run(scenarios, generated, lo, mid), new Run(scenarios, generated, mid, hi));
+        }
+    }
+
+    /**
+     * Runs one scenario, any failure is recorded in its status rather than stopping the batch
+     */
+    static void run(Scenario s, Generated generated){
+        long start = System.nanoTime();
+        List<File> temp = new ArrayList<File>();
+        String graph = s.graph;
+        String events = s.events;
+        try{
+            if(generated != null){
+                temp.add(File.createTempFile("batch-graph", ".txt"));
+                temp.add(File.createTempFile("batch-events", ".txt"));
+                graph = temp.get(0).getPath();
+                events = temp.get(1).getPath();
+                Generator.graph(graph, generated.nodes, generated.topology, generated.degree, generated.rewire,
+                        true, s.seed);
+                int gap = generated.gap > 0 ? generated.gap : 3 * generated.nodes + 10;
+                Generator.events(events, graph, generated.events, gap, generated.fail, generated.initiators, s.seed);
+            }
+
+            Network net = new Network(graph, events, new BufferedWriter(Writer.nullWriter()));
+            net.setConsole(new PrintStream(OutputStream.nullOutputStream()));
+            net.setVerbosity(Network.Verbosity.QUIET);
+            for(String option : s.options){
+                if(writesFiles(option)){
+                    continue;
+                }
+                String error = net.setOption(option);
+                if(error != null){
+                    s.status = "error: " + error;
+                    return;
+                }
+            }
+            net.setEngine(Network.Engine.SINGLE);
+            net.setClock(true, 0);
+
+            net.NetSimulator();
+
+            s.nodes = net.size();
+            s.rounds = net.getRound();
+            s.messages = net.getMessageCount();
+            s.leaders = new int[net.getLeaderCount()];
+            s.election_rounds = new int[net.getLeaderCount()];
+            for(int i = 0; i < s.leaders.length; i++){
+                s.leaders[i] = net.getLeader(i);
+                s.election_rounds[i] = net.getElectionRounds(i);
+            }
+            s.status = net.isDisconnected() ? "disconnected" : net.hitRoundLimit() ? "round limit" : "ok";
+        }catch(NoSuchFileException | FileNotFoundException e){
+            s.status = "error: no file " + e.getMessage();
+        }catch(Exception e){
+            s.status = "error: " + e;
+        }finally{
+            for(File f : temp){
+                f.delete();
+            }
+            s.ms = (System.nanoTime() - start) / 1e6;
+        }
+    }
+
+    /**
+     * Reads the scenarios of a scenario file
+     */
+    static Scenario[] readScenarios(String file) throws IOException {
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        String line;
+        int line_number = 0;
+        while((line = in.readLine()) != null){
+            line_number++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            if(words.length < 2){
+                in.close();
+                throw new IOException(file + ":" + line_number + ": expected a graph file and an event file");
+            }
+            String[] options = new String[words.length - 2];
+            System.arraycopy(words, 2, options, 0, options.length);
+            scenarios.add(new Scenario(scenarios.size(), words[0], words[1], options, -1));
+        }
+        in.close();
+        return scenarios.toArray(new Scenario[0]);
+    }
+
+    // ========================== SUMMARY ========================
+
+    static void writeCsv(Scenario[] scenarios, Writer w) throws IOException {
+        w.write("scenario,graph,events,seed,status,nodes,rounds,messages,elections,leaders,election_rounds,ms\n");
+        for(Scenario s : scenarios){
+            w.write(s.number + "," + csv(s.graph) + "," + csv(s.events) + "," + s.seed + "," + csv(s.status) + ","
+                    + s.nodes + "," + s.rounds + "," + s.messages + "," + s.leaders.length + ","
+                    + join(s.leaders, ";") + "," + join(s.election_rounds, ";") + "," + String.format("%.3f", s.ms) + "\n");
+        }
+    }
+
+    static void writeJson(Scenario[] scenarios, Writer w) throws IOException {
+        w.write("[\n");
+        for(int i = 0; i < scenarios.length; i++){
+            Scenario s = scenarios[i];
+            w.write("  {\"scenario\": " + s.number + ", \"graph\": " + json(s.graph) + ", \"events\": " + json(s.events)
+                    + ", \"seed\": " + s.seed + ", \"status\": " + json(s.status) + ", \"nodes\": " + s.nodes
+                    + ", \"rounds\": " + s.rounds + ", \"messages\": " + s.messages
+                    + ", \"leaders\": [" + join(s.leaders, ", ") + "]"
+                    + ", \"election_rounds\": [" + join(s.election_rounds, ", ") + "]"
+                    + ", \"ms\": " + String.format("%.3f", s.ms) + "}" + (i + 1 < scenarios.length ? "," : "") + "\n");
+        }
+        w.write("]\n");
+    }
+
+    /**
+     * True for the options that make a Network write files, ignored by a scenario
+     */
+    private static boolean writesFiles(String option){
+        return option.startsWith("--trace=") || option.startsWith("--metrics=")
+                || option.startsWith("--checkpoint=") || option.startsWith("--ring-cache=");
+    }
+
+    private static String join(int[] values, String separator){
+        StringBuilder b = new StringBuilder();
+        for(int i = 0; i < values.length; i++){
+            if(i > 0){
+                b.append(separator);
+            }
+            b.append(values[i]);
+        }
+        return b.toString();
+    }
+
+    private static String csv(String value){
+        if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0){
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json(String value){
+        StringBuilder b = new StringBuilder("\"");
+        for(char c : value.toCharArray()){
+            if(c == '"' || c == '\\'){
+                b.append('\\').append(c);
+            }else if(c < 0x20){
+                b.append(String.format("\\u%04x", (int) c));
+            }else{
+                b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    /*
+    *  Options:
+    *       --out=file              summary file, JSON if it ends in .json (default summary.csv)
+    *       --format=csv|json       overrides the format given by the file name
+    *       --threads=n             workers of the pool (default number of processors)
+    *   for --generate=n, as for Generator:
+    *       --nodes=n --topology=ring|random|smallworld|grid --degree=d --rewire=p
+    *       --events=n (default 10) --gap=rounds --fail=p --initiators=k --seed=s (default 1)
+    *   any other option is a Network option given to every scenario, e.g. --algorithm=hs
+    * */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 1){
+            System.out.println("Usage: java Batch <scenario file> | --generate=n [options]");
+            return;
+        }
+
+        String out = "summary.csv";
+        String format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int generate = -1;
+        long seed = 1;
+        Generated generated = new Generated();
+        List<String> network_options = new ArrayList<String>();
+        String scenario_file = null;
+        try{
+            for(String arg : args){
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if(!arg.startsWith("--")){
+                    scenario_file = arg;
+                }else if(arg.startsWith("--out=")){
+                    out = value;
+                }else if(arg.startsWith("--format=")){
+                    format = value;
+                }else if(arg.startsWith("--threads=")){
+                    threads = Integer.parseInt(value);
+                }else if(arg.startsWith("--generate=")){
+                    generate = Integer.parseInt(value);
+                }else if(arg.startsWith("--seed=")){
+                    seed = Long.parseLong(value);
+                }else if(arg.startsWith("--nodes=")){
+                    generated.nodes = Integer.parseInt(value);
+                }else if(arg.startsWith("--topology=")){
+                    generated.topology = value;
+                }else if(arg.startsWith("--degree=")){
+                    generated.degree = Integer.parseInt(value);
+                }else if(arg.startsWith("--rewire=")){
+                    generated.rewire = Double.parseDouble(value);
+                }else if(arg.startsWith("--events=")){
+                    generated.events = Long.parseLong(value);
+                }else if(arg.startsWith("--gap=")){
+                    generated.gap = Integer.parseInt(value);
+                }else if(arg.startsWith("--fail=")){
+                    generated.fail = Double.parseDouble(value);
+                }else if(arg.startsWith("--initiators=")){
+                    generated.initiators = Integer.parseInt(value);
+                }else{
+                    network_options.add(arg);
+                }
+            }
+        }catch(NumberFormatException e){
+            System.out.println("ERROR: " + e.getMessage());
+            return;
+        }
+        if(format == null){
+            format = out.endsWith(".json") ? "json" : "csv";
+        }
+        if(!format.equals("csv") && !format.equals("json")){
+            System.out.println("ERROR: unknown format " + format + ", expected csv or json");
+            return;
+        }
+        if((generate < 0) == (scenario_file == null)){
+            System.out.println("ERROR: give either a scenario file or --generate=n");
+            return;
+        }
+
+        Scenario[] scenarios;
+        if(generate >= 0){
+            scenarios = new Scenario[generate];
+            for(int i = 0; i < generate; i++){
+                scenarios[i] = new Scenario(i, "generated", "generated", network_options.toArray(new String[0]), seed + i);
+            }
+        }else{
+            try{
+                scenarios = readScenarios(scenario_file);
+            }catch(IOException e){
+                System.out.println("ERROR: " + e.getMessage());
+                return;
+            }
+            for(Scenario s : scenarios){
+                String[] options = new String[network_options.size() + s.options.length];
+                for(int i = 0; i < network_options.size(); i++){
+                    options[i] = network_options.get(i);
+                }
+                System.arraycopy(s.options, 0, options, network_options.size(), s.options.length);
+                scenarios[s.number] = new Scenario(s.number, s.graph, s.events, options, -1);
+            }
+        }
+
+        long start = System.nanoTime();
+        if(scenarios.length > 0){
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            pool.invoke(new Run(scenarios, generate >= 0 ? generated : null, 0, scenarios.length));
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        BufferedWriter w = new BufferedWriter(new FileWriter(out));
+        if(format.equals("json")){
+            writeJson(scenarios, w);
+        }else{
+            writeCsv(scenarios, w);
+        }
+        w.close();
+
+        int failed = 0;
+        for(Scenario s : scenarios){
+            if(s.status.startsWith("error")){
+                failed++;
+            }
+        }
+        System.out.format("Ran %d scenarios in %.3f s on %d threads, %d failed, summary in %s\n", scenarios.length,
+                seconds, threads, failed, out);
+    }
+}
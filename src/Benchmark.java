@@ -0,0 +1,262 @@
+import java.util.*;
+import java.io.*;
+
+/*
+Benchmarks for the simulator, run with: java Benchmark <name>
+
+- delivery: cost of Network.deliverMessages() per message when every node of the ring sends,
+  as in the ELECT flood, for growing ring sizes. The cost per message should stay flat.
+- election: messages, rounds and wall time of a whole election with every node starting it, for
+  each election algorithm, ring size and order of the ids round the ring
+- threads: rounds per second and peak memory of the threaded engine with the nodes on platform
+  threads and on virtual threads, for growing rings (java Benchmark threads [nodes...]). Each run
+  is a separate JVM so its peak resident memory is its own, virtual threads need Java 21
+*/
+public class Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "delivery";
+
+        if(name.equals("delivery")){
+            delivery();
+        }else if(name.equals("election")){
+            election();
+        }else if(name.equals("threads")){
+            threads(args);
+        }else if(name.equals("threads-run")){
+            threadsRun(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        }else{
+            System.out.println("ERROR: unknown benchmark " + name + ", expected delivery, election or threads");
+        }
+    }
+
+    /**
+     * Writes a graph file in the ds_graph.txt format containing a ring of nodes 1..n,
+     * the ring edges are implicit in the order of the lines.
+     */
+    static File ringGraph(int n) throws IOException {
+        int[] ids = new int[n];
+        for(int i = 0; i < n; i++){
+            ids[i] = i + 1;
+        }
+        return ringGraph(ids);
+    }
+
+    /**
+     * Writes a graph file of a ring with the given ids in ring order
+     */
+    static File ringGraph(int[] ids) throws IOException {
+        File f = File.createTempFile("ring", ".txt");
+        f.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        for(int id : ids){
+            w.write(id + "\n");
+        }
+        w.close();
+        return f;
+    }
+
+    /**
+     * Writes an event file in the ds_elect.txt format where all the ids start an election in round 1
+     */
+    static File electAll(int[] ids) throws IOException {
+        File f = File.createTempFile("elect", ".txt");
+        f.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        w.write("ELECT 1");
+        for(int id : ids){
+            w.write(" " + id);
+        }
+        w.write("\n");
+        w.close();
+        return f;
+    }
+
+    /**
+     * Ids 1..n in the ring order named, messages travel to the successor so descending ids are the
+     * worst case of Chang-Roberts and ascending the best
+     */
+    static int[] ringIds(int n, String order){
+        int[] ids = new int[n];
+        for(int i = 0; i < n; i++){
+            ids[i] = order.equals("descending") ? n - i : i + 1;
+        }
+        if(order.equals("random")){
+            Random random = new Random(n);
+            for(int i = n - 1; i > 0; i--){
+                int j = random.nextInt(i + 1);
+                int t = ids[i];
+                ids[i] = ids[j];
+                ids[j] = t;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Runs a whole election for every algorithm, ring order and size on the single engine with the
+     * virtual clock, so the time is the simulation alone
+     */
+    static void election() throws Exception {
+        String[] algorithms = {"cr", "hs", "floodmax"};
+        String[] orders = {"ascending", "descending", "random"};
+        int[] sizes = {256, 64, 256, 1024, 4096}; // first run is JIT warm up
+
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        console.println("algorithm, order, nodes, messages, rounds, ms");
+        for(String algorithm : algorithms){
+            for(String order : orders){
+                for(int s = 0; s < sizes.length; s++){
+                    int[] ids = ringIds(sizes[s], order);
+                    File graph = ringGraph(ids);
+                    File events = electAll(ids);
+
+                    Network net = new Network(graph.getPath(), events.getPath());
+                    net.setConsole(discard);
+                    net.setVerbosity(Network.Verbosity.QUIET);
+                    net.setEngine(Network.Engine.SINGLE);
+                    net.setClock(true, 0);
+                    net.setAlgorithm(LeaderElectionAlgorithm.byName(algorithm));
+                    long start = System.nanoTime();
+                    net.NetSimulator();
+                    long time = System.nanoTime() - start;
+
+                    if(s > 0){
+                        console.format("%s, %s, %d, %d, %d, %.1f\n", algorithm, order, sizes[s],
+                                net.getMessageCount(), net.getRound(), time / 1e6);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Times deliverMessages() with every node sending a message each round
+     */
+    static void delivery() throws Exception {
+        int[] sizes = {16000, 1000, 4000, 16000, 64000, 256000}; // first run is JIT warm up
+        int rounds = 100;
+
+        // message trace printing is part of delivery but would flood the console
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        console.println("nodes, ns per round, ns per message");
+        for(int s = 0; s < sizes.length; s++){
+            int n = sizes[s];
+            File graph = ringGraph(n);
+            Network net = new Network(graph.getPath(), graph.getPath());
+            net.setConsole(discard);
+
+            long[] msgs = new long[n + 1];
+            Node[] nodes = new Node[n + 1];
+            for(int id = 1; id <= n; id++){
+                msgs[id] = Message.make(Message.FORWARD, id);
+                nodes[id] = net.getNodeInMap(id);
+            }
+
+            // first half of the rounds warm up the JIT
+            long total = 0;
+            for(int r = 0; r < 2 * rounds; r++){
+                for(int id = 1; id <= n; id++){
+                    net.addMessage(nodes[id].getIndex(), msgs[id]);
+                }
+
+                long start = System.nanoTime();
+                net.deliverMessages();
+                long time = System.nanoTime() - start;
+                if(r >= rounds){
+                    total += time;
+                }
+
+                for(int id = 1; id <= n; id++){
+                    nodes[id].clearMailbox();
+                }
+            }
+
+            if(s > 0) {
+                console.format("%d, %d, %.1f\n", n, total / rounds, (double) total / rounds / n);
+            }
+        }
+    }
+
+    /**
+     * Runs threadsRun() in a new JVM for each ring size and engine and prints what they report
+     */
+    static void threads(String[] args) throws Exception {
+        int[] sizes = {1000, 10000, 50000};
+        if(args.length > 1){
+            sizes = new int[args.length - 1];
+            for(int i = 1; i < args.length; i++){
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        int rounds = 200;
+        String java = ProcessHandle.current().info().command().orElse("java");
+
+        System.out.println("engine, nodes, rounds, rounds per s, peak rss MB, peak platform threads");
+        for(int n : sizes){
+            for(String engine : new String[]{"threaded", "virtual"}){
+                if(engine.equals("virtual") && !Node.virtualThreadsAvailable()){
+                    System.out.format("virtual, %d, skipped: needs Java 21, this is %s\n", n, System.getProperty("java.version"));
+                    continue;
+                }
+                Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "Benchmark",
+                        "threads-run", engine, Integer.toString(n), Integer.toString(rounds))
+                        .redirectErrorStream(true).start();
+                BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+                String line;
+                while((line = r.readLine()) != null){
+                    System.out.println(line);
+                }
+                if(p.waitFor() != 0){
+                    System.out.format("%s, %d, failed with exit code %d\n", engine, n, p.exitValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * One run for threads(): a Chang-Roberts election started by every node of a ring of n nodes,
+     * for the given number of rounds with the virtual clock so the rounds are back to back
+     *  - peak resident memory is VmHWM of /proc/self/status, -1 where there is none
+     */
+    static void threadsRun(String engine, int n, int rounds) throws Exception {
+        int[] ids = ringIds(n, "descending");
+        File graph = ringGraph(ids);
+        File events = electAll(ids);
+
+        Network net = new Network(graph.getPath(), events.getPath(), new BufferedWriter(Writer.nullWriter()));
+        net.setConsole(new PrintStream(OutputStream.nullOutputStream()));
+        for(String option : new String[]{"--engine=" + engine, "--clock=virtual", "--verbosity=quiet",
+                "--max-rounds=" + rounds}){
+            String error = net.setOption(option);
+            if(error != null){
+                System.out.println("ERROR: " + error);
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        net.NetSimulator();
+        long time = System.nanoTime() - start;
+
+        long rss = -1;
+        File status = new File("/proc/self/status");
+        if(status.exists()){
+            BufferedReader r = new BufferedReader(new FileReader(status));
+            String line;
+            while((line = r.readLine()) != null){
+                if(line.startsWith("VmHWM:")){
+                    rss = Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024; // kB
+                }
+            }
+            r.close();
+        }
+
+        System.out.format("%s, %d, %d, %.1f, %d, %d\n", engine, n, net.getRound(), net.getRound() / (time / 1e9), rss,
+                java.lang.management.ManagementFactory.getThreadMXBean().getPeakThreadCount());
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static java.lang.Math.max;
+
+/*
+Chang-Roberts election on a unidirectional ring, the algorithm the nodes have always run.
+
+- the initiator sends ELECT with its id to its successor, nodes forward the largest id they have
+  seen as FORWARD and swallow smaller ones once participating
+- the node that gets its own id back is the leader and sends LEADER around the ring
+- ELECT and FORWARD carry in aux the hops the id has gone since the node with that id sent it, so the
+  leader knows the size of the ring. LEADER carries the hops it has left and stops after one lap even
+  if the leader fails before it gets back, as in HirschbergSinclair
+- O(n^2) messages in the worst case, ids decreasing along the ring with every node initiating
+*/
+public class ChangRoberts implements LeaderElectionAlgorithm {
+
+    // the hops of an id round the ring are kept in aux
+    static final int MAX_RING = (1 << Message.AUX_BITS) - 1;
+
+    private boolean[] participant; // by node index
+
+    @Override
+    public String name(){
+        return "cr";
+    }
+
+    @Override
+    public int maxRingSize(){
+        return MAX_RING;
+    }
+
+    @Override
+    public void init(Network network){
+        participant = new boolean[network.size()];
+    }
+
+    @Override
+    public void start(Node node){
+        participant[node.getIndex()] = true;
+        node.sendMsg(Message.make(Message.ELECT, 1, node.getNodeId()));
+    }
+
+    /**
+     *  Handles the different types of messages a Node could receive
+     *      - ELECT
+     *      - FORWARD
+     *      - LEADER
+     */
+    @Override
+    public void receive(Node node, long msg){
+        int id = node.getNodeId();
+        int index = node.getIndex();
+
+        // get message type
+        int msg_type = Message.type(msg);
+
+        // handle different types of message
+        if(msg_type == Message.ELECT){
+            int msg_node_id = Message.payload(msg);
+            long send_msg = Message.make(Message.FORWARD, hops(id, msg), max(id, msg_node_id));
+            if(participant[index] == false){
+                participant[index] = true;
+                node.sendMsg(send_msg);
+            }else if(participant[index] == true && msg_node_id > id ){
+                node.sendMsg(send_msg);
+            }else if(msg_node_id == id){
+                // only happens on a ring of one node, the election message came straight back
+                participant[index] = false;
+                node.declareLeader();
+                node.sendMsg(Message.make(Message.LEADER, id));
+            }else{
+                // already sent message around as participant
+                // do nothing as participant true and m.id < p.id
+            }
+        }else if(msg_type == Message.LEADER){
+            int leader_node_id = Message.payload(msg);
+            if(!node.isNodeLeader()) {
+                node.setLeaderNode(leader_node_id);
+                participant[index] = false;
+                // forward leader message until its lap is done
+                if(Message.aux(msg) > 1){
+                    node.sendMsg(Message.make(Message.LEADER, Message.aux(msg) - 1, leader_node_id));
+                }
+            }
+        }else if(msg_type == Message.FORWARD){
+            int msg_node_id = Message.payload(msg);
+            long send_msg = Message.make(Message.FORWARD, hops(id, msg), max(id, msg_node_id));
+            if(participant[index] == false){
+                participant[index] = true;
+                node.sendMsg(send_msg);
+            }else if(participant[index] == true && id < msg_node_id){
+                node.sendMsg(send_msg);
+            }else if(msg_node_id == id){
+                participant[index] = false; // stop participating as now leader this might not be wanted
+                node.sendMsg(Message.make(Message.LEADER, Message.aux(msg) - 1, id)); // aux is the size of the ring
+                node.declareLeader();
+            }else{
+                // do nothing
+            }
+        }else{
+            node.console().println("MALFORMED MESSAGE: " + Message.toString(msg)); // something when wrong
+        }
+    }
+
+    /**
+     * Hops the id sent on by node id has gone when it gets to the next node, counted from 1 again if
+     * the node sends its own id
+     */
+    private static int hops(int id, long msg){
+        return Message.payload(msg) > id ? Message.aux(msg) + 1 : 1;
+    }
+
+    /**
+     * A participant swallows smaller ids as its own or a larger one is on its way round, on a new
+     * ring that message is lost
+     */
+    @Override
+    public void reset(Node node){
+        participant[node.getIndex()] = false;
+    }
+
+    @Override
+    public void save(DataOutput out) throws IOException {
+        Snapshot.writeBooleans(out, participant, participant.length);
+    }
+
+    @Override
+    public void restore(DataInput in) throws IOException {
+        Snapshot.readBooleans(in, participant, participant.length);
+    }
+}
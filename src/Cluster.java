@@ -0,0 +1,506 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Processes of a simulation split over several JVMs on one machine (see Network --processes), each
+holds and runs only the nodes of one segment of the ring.
+
+- process 0 starts the others with the same arguments and they connect back to it over loopback
+  NIO channels. Each process also connects to the process after it, so the segments form a ring of
+  channels of their own
+- a ring algorithm only sends out of a segment from its ends: the last node to its successor, the
+  first node to its predecessor. Each round a process sends those messages straight to the process
+  after and before it, as node ids since a process only knows the ids of the nodes just outside its
+  segment
+- a process delivers the messages of processes before it in the ring before its own and those of
+  processes after it after its own, so mailboxes fill as they do when one process delivers in ring
+  order. A message sent by a node an event started that round goes by the same rule, one process
+  would deliver it after every other message of the round
+- process 0 is the barrier of the round: every process sends it whether it is idle and the leaders
+  it elected, process 0 answers whether all of them are idle and logs the leaders in ring order.
+  On the round of an event the processes also agree on what it did through process 0 (see agree())
+- frames are an int length then big endian ints and longs
+*/
+public class Cluster implements Closeable {
+
+    private static final int CONNECT_TIMEOUT_MS = 60000;
+
+    private final int process;
+    private final int processes;
+    private final SocketChannel[] channels; // process 0: by process, others: [0] to process 0
+    private final SocketChannel next; // to the process after this one in the ring
+    private final SocketChannel prev;
+    private final Process[] children; // started by process 0, null elsewhere
+
+    private final Posts to_next = new Posts(); // messages leaving the segment this round
+    private final Posts to_prev = new Posts();
+    private final Posts in = new Posts(); // messages from the processes either side this round
+    private int early = 0; // messages of in delivered before those of this process
+
+    // leaders elected this round by ring position, process 0 has those of every process after exchange()
+    private int[] leader_pos = new int[4];
+    private int[] leader_id = new int[4];
+    private int leader_count = 0;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+
+    private Cluster(int process, int processes, SocketChannel[] channels, SocketChannel next, SocketChannel prev,
+                    Process[] children){
+        this.process = process;
+        this.processes = processes;
+        this.channels = channels;
+        this.next = next;
+        this.prev = prev;
+        this.children = children;
+    }
+
+    /**
+     * Process 0: starts processes 1 .. processes - 1 with the given command followed by
+     * --cluster=p/processes:port, waits for them to connect and links the ring of processes
+     */
+    public static Cluster start(int processes, List<String> command) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        ServerSocketChannel ring = listen();
+
+        Process[] children = new Process[processes];
+        for(int p = 1; p < processes; p++){
+            String[] args = command.toArray(new String[command.size() + 1]);
+            args[command.size()] = "--cluster=" + p + "/" + processes + ":" + port;
+            children[p] = new ProcessBuilder(args).inheritIO().start();
+        }
+
+        // each process says who it is and the port the process before it connects to
+        SocketChannel[] channels = new SocketChannel[processes];
+        int[] ring_ports = new int[processes];
+        ring_ports[0] = ((InetSocketAddress) ring.getLocalAddress()).getPort();
+        server.configureBlocking(false);
+        try(Selector selector = Selector.open()){
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+            for(int connected = 1; connected < processes; ){
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0 || selector.select(wait) == 0){
+                    for(Process child : children){
+                        if(child != null){
+                            child.destroy();
+                        }
+                    }
+                    throw new IOException("only " + connected + " of " + processes + " processes started");
+                }
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while((channel = server.accept()) != null){
+                    channel.configureBlocking(true);
+                    channel.socket().setTcpNoDelay(true);
+                    ByteBuffer hello = ByteBuffer.allocate(8);
+                    readFully(channel, hello);
+                    channels[hello.getInt(0)] = channel;
+                    ring_ports[hello.getInt(0)] = hello.getInt(4);
+                    connected++;
+                }
+            }
+        }
+        server.close();
+
+        for(int p = 1; p < processes; p++){
+            write(channels[p], ByteBuffer.allocate(4).putInt(0, ring_ports[(p + 1) % processes]));
+        }
+        SocketChannel next = connect(ring_ports[1]);
+        SocketChannel prev = accept(ring);
+        return new Cluster(0, processes, channels, next, prev, children);
+    }
+
+    /**
+     * Process p of the given number: connects to process 0 on the given loopback port, then to the
+     * process after it
+     */
+    public static Cluster join(int process, int processes, int port) throws IOException {
+        ServerSocketChannel ring = listen();
+        SocketChannel channel = connect(port);
+        ByteBuffer hello = ByteBuffer.allocate(8).putInt(0, process)
+                .putInt(4, ((InetSocketAddress) ring.getLocalAddress()).getPort());
+        write(channel, hello);
+        ByteBuffer next_port = ByteBuffer.allocate(4);
+        readFully(channel, next_port);
+        SocketChannel next = connect(next_port.getInt(0));
+        SocketChannel prev = accept(ring);
+        return new Cluster(process, processes, new SocketChannel[]{channel}, next, prev, null);
+    }
+
+    public int process(){
+        return process;
+    }
+
+    public int processes(){
+        return processes;
+    }
+
+    /**
+     * Queues a message leaving the segment, from the node with id from to the node with id to, for
+     * the process after this one if to_next and the one before otherwise
+     */
+    public void post(boolean to_next, int from, int to, long msg){
+        (to_next ? this.to_next : to_prev).add(from, to, msg);
+    }
+
+    /**
+     * Records a leader elected at the given ring position of the segment this round
+     */
+    public synchronized void leader(int position, int id){
+        if(leader_count == leader_pos.length){
+            leader_pos = Arrays.copyOf(leader_pos, leader_count * 2);
+            leader_id = Arrays.copyOf(leader_id, leader_count * 2);
+        }
+        leader_pos[leader_count] = position;
+        leader_id[leader_count++] = id;
+    }
+
+    /**
+     * Ends the round: sends the messages posted to the processes either side and receives theirs,
+     * read them with received(), from(i), to(i) and msg(i), the first early() of them go before the
+     * messages of this process. With process 0 the leaders of all processes are then listed by
+     * leaders() and leaderId(i) in ring order.
+     * Returns true if every process was idle.
+     */
+    public boolean exchange(boolean idle) throws IOException {
+        send(next, to_next.write(start()));
+        to_next.count = 0;
+        send(prev, to_prev.write(start()));
+        to_prev.count = 0;
+
+        boolean all_idle = idle;
+        sortLeaders();
+        if(process != 0){
+            ByteBuffer b = start();
+            b.put((byte) (idle ? 1 : 0));
+            send(channels[0], writeLeaders(b));
+            leader_count = 0;
+            all_idle = receive(channels[0]).get() != 0;
+        }else{
+            for(int p = 1; p < processes; p++){
+                ByteBuffer b = receive(channels[p]);
+                all_idle &= b.get() != 0;
+                readLeaders(b);
+            }
+            for(int p = 1; p < processes; p++){
+                ByteBuffer b = start();
+                b.put((byte) (all_idle ? 1 : 0));
+                send(channels[p], b);
+            }
+        }
+
+        // in ring order of the senders: by process, the one before first if it is also the one after
+        int before = (process + processes - 1) % processes;
+        int after = (process + 1) % processes;
+        in.count = 0;
+        early = 0;
+        if(after < before){
+            read(next, after);
+            read(prev, before);
+        }else{
+            read(prev, before);
+            read(next, after);
+        }
+        return all_idle;
+    }
+
+    /**
+     * Round of an event: each process hands in what the event did to its segment, and every process
+     * gets what each process handed in, by process
+     */
+    public long[][] agree(long[] facts) throws IOException {
+        long[][] all = new long[processes][];
+        if(process != 0){
+            send(channels[0], writeLongs(start(), facts));
+            ByteBuffer b = receive(channels[0]);
+            for(int p = 0; p < processes; p++){
+                all[p] = readLongs(b);
+            }
+            return all;
+        }
+        all[0] = facts;
+        for(int p = 1; p < processes; p++){
+            all[p] = readLongs(receive(channels[p]));
+        }
+        ByteBuffer b = start();
+        for(long[] f : all){
+            b = writeLongs(b, f);
+        }
+        int end = b.position();
+        for(int p = 1; p < processes; p++){
+            b.limit(b.capacity()).position(end);
+            send(channels[p], b);
+        }
+        return all;
+    }
+
+    /**
+     * Leaders elected this round, with process 0 after exchange() those of every process
+     */
+    public int leaders(){
+        return leader_count;
+    }
+
+    public int leaderId(int i){
+        return leader_id[i];
+    }
+
+    /**
+     * Forgets the leaders of the round once process 0 has logged them
+     */
+    public void clearLeaders(){
+        leader_count = 0;
+    }
+
+    public int received(){
+        return in.count;
+    }
+
+    /**
+     * Number of the messages received that are delivered before the messages of this process
+     */
+    public int early(){
+        return early;
+    }
+
+    public int from(int i){
+        return in.from[i];
+    }
+
+    public int to(int i){
+        return in.to[i];
+    }
+
+    public long msg(int i){
+        return in.msg[i];
+    }
+
+    /**
+     * Ends the simulation: each process sends process 0 its leaders not yet sent and its summary
+     * numbers. Process 0 gets the numbers of every process by process, the others get null.
+     */
+    public long[][] finish(long[] summary) throws IOException {
+        sortLeaders();
+        if(process != 0){
+            send(channels[0], writeLongs(writeLeaders(start()), summary));
+            leader_count = 0;
+            return null;
+        }
+        long[][] all = new long[processes][];
+        all[0] = summary;
+        for(int p = 1; p < processes; p++){
+            ByteBuffer b = receive(channels[p]);
+            readLeaders(b);
+            all[p] = readLongs(b);
+        }
+        return all;
+    }
+
+    /**
+     * Closes the channels, process 0 waits for the other processes to exit
+     */
+    @Override
+    public void close() throws IOException {
+        next.close();
+        prev.close();
+        for(SocketChannel channel : channels){
+            if(channel != null){
+                channel.close();
+            }
+        }
+        if(children != null){
+            for(Process child : children){
+                if(child == null){
+                    continue;
+                }
+                try{
+                    child.waitFor();
+                }catch(InterruptedException e){
+                    child.destroy();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static ServerSocketChannel listen() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return server;
+    }
+
+    private static SocketChannel connect(int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        channel.socket().setTcpNoDelay(true);
+        return channel;
+    }
+
+    // the connection of the process before this one, which connects once it knows the port
+    private static SocketChannel accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        server.close();
+        channel.socket().setTcpNoDelay(true);
+        return channel;
+    }
+
+    // leaders of this process in ring order, those of other processes come after in process order
+    private void sortLeaders(){
+        // insertion sort, few leaders a round
+        for(int i = 1; i < leader_count; i++){
+            int pos = leader_pos[i];
+            int id = leader_id[i];
+            int j = i - 1;
+            while(j >= 0 && leader_pos[j] > pos){
+                leader_pos[j + 1] = leader_pos[j];
+                leader_id[j + 1] = leader_id[j];
+                j--;
+            }
+            leader_pos[j + 1] = pos;
+            leader_id[j + 1] = id;
+        }
+    }
+
+    private ByteBuffer writeLeaders(ByteBuffer b){
+        b = ensure(b, 4 + 4 * leader_count);
+        b.putInt(leader_count);
+        for(int i = 0; i < leader_count; i++){
+            b.putInt(leader_id[i]);
+        }
+        buffer = b;
+        return b;
+    }
+
+    // listed after the leaders of the processes before, each process sends its own in ring order
+    private void readLeaders(ByteBuffer b){
+        for(int i = b.getInt(); i > 0; i--){
+            leader(Integer.MAX_VALUE, b.getInt());
+        }
+    }
+
+    // messages of the process before or after this one, early if it is before this one in the ring
+    private void read(SocketChannel channel, int from) throws IOException {
+        in.read(receive(channel));
+        if(from < process){
+            early = in.count;
+        }
+    }
+
+    private ByteBuffer writeLongs(ByteBuffer b, long[] values){
+        b = ensure(b, 4 + 8 * values.length);
+        b.putInt(values.length);
+        for(long v : values){
+            b.putLong(v);
+        }
+        buffer = b;
+        return b;
+    }
+
+    private static long[] readLongs(ByteBuffer b){
+        long[] values = new long[b.getInt()];
+        for(int i = 0; i < values.length; i++){
+            values[i] = b.getLong();
+        }
+        return values;
+    }
+
+    private ByteBuffer start(){
+        buffer.clear();
+        buffer.position(4); // length, filled in by send()
+        return buffer;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer b, int more){
+        if(b.remaining() >= more){
+            return b;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + more));
+        b.flip();
+        bigger.put(b);
+        return bigger;
+    }
+
+    private static void send(SocketChannel channel, ByteBuffer b) throws IOException {
+        b.putInt(0, b.position() - 4);
+        b.flip();
+        while(b.hasRemaining()){
+            channel.write(b);
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer b) throws IOException {
+        while(b.hasRemaining()){
+            channel.write(b);
+        }
+    }
+
+    private ByteBuffer receive(SocketChannel channel) throws IOException {
+        header.clear();
+        readFully(channel, header);
+        int length = header.getInt(0);
+        if(buffer.capacity() < length){
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear().limit(length);
+        readFully(channel, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer b) throws IOException {
+        while(b.hasRemaining()){
+            if(channel.read(b) < 0){
+                throw new EOFException("a process of the simulation closed its connection");
+            }
+        }
+    }
+
+    /**
+     * Messages as sending node id, receiving node id and message, in the order added
+     */
+    private final class Posts {
+        int[] from = new int[4];
+        int[] to = new int[4];
+        long[] msg = new long[4];
+        int count = 0;
+
+        void add(int f, int t, long m){
+            if(count == msg.length){
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+                msg = Arrays.copyOf(msg, count * 2);
+            }
+            from[count] = f;
+            to[count] = t;
+            msg[count++] = m;
+        }
+
+        // count then the messages
+        ByteBuffer write(ByteBuffer b){
+            b = ensure(b, 4 + 16 * count);
+            b.putInt(count);
+            for(int i = 0; i < count; i++){
+                b.putInt(from[i]).putInt(to[i]).putLong(msg[i]);
+            }
+            buffer = b;
+            return b;
+        }
+
+        void read(ByteBuffer b){
+            int n = b.getInt();
+            for(int i = 0; i < n; i++){
+                add(b.getInt(), b.getInt(), b.getLong());
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+Connected components of the live nodes of the ring, kept up to date as nodes fail (see Network). Each
+component forms a ring of its own and elects its own leader.
+
+- each node has the label of its component, -1 once failed or if it was never in the ring. Failures
+  only ever split a component, the rest of a component keeps its label and the parts cut off from it
+  get new ones, labels are never reused
+- when a node fails a search starts from each of its live neighbours in the component and they take
+  turns one node at a time, searches that meet join up. The searches stop once at most one group of
+  them is still going: every group that ran out is a part of its own and the group still going is
+  the rest, which is never walked to the end. A failure costs the size of the parts cut off rather
+  than of the component, nothing at all is searched when the network repairs the ring around the
+  failed node (see Network.repairRing) as a ring through the rest shows it is still connected
+- only used by the network thread
+*/
+public class Components {
+
+    private final Graph g;
+    private final int[] label; // by node index
+    private int[] size = new int[4]; // nodes in each component by label
+    private int count = 0; // labels handed out
+
+    // search state, a node was reached by search by[v] if seen[v] == generation
+    private final int[] seen;
+    private final int[] by;
+    private int generation = 0;
+
+    /**
+     * One component of the first n nodes of the array, the ring of the graph file
+     */
+    public Components(Graph g, int[] nodes, int n){
+        this.g = g;
+        label = new int[g.size()];
+        Arrays.fill(label, -1);
+        seen = new int[g.size()];
+        by = new int[g.size()];
+        int c = newLabel();
+        for(int i = 0; i < n; i++){
+            label[nodes[i]] = c;
+        }
+        size[c] = n;
+    }
+
+    /**
+     * Label of the component of node v, -1 if it is in none
+     */
+    public int label(int v){
+        return label[v];
+    }
+
+    /**
+     * Labels handed out so far, the labels of components are below it
+     */
+    public int count(){
+        return count;
+    }
+
+    /**
+     * Number of nodes in the component with the given label, 0 once they have all failed
+     */
+    public int size(int c){
+        return size[c];
+    }
+
+    /**
+     * Number of components with nodes left
+     */
+    public int live(){
+        int k = 0;
+        for(int c = 0; c < count; c++){
+            if(size[c] > 0){
+                k++;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Takes failed node v out of its component, without looking for a split, when the component is
+     * known to still be connected
+     */
+    public void remove(int v){
+        if(label[v] >= 0){
+            size[label[v]]--;
+            label[v] = -1;
+        }
+    }
+
+    /**
+     * Takes failed node v out of its component and splits the component if v held it together.
+     * Returns the nodes of each part cut off, each now a component with a new label, in the order of
+     * the neighbours of v they hold. The part that keeps the label is not listed
+     */
+    public int[][] split(int v){
+        int c = label[v];
+        remove(v);
+        if(c < 0){
+            return new int[0][];
+        }
+
+        // one search from each live neighbour in the component
+        int k = 0;
+        int[] start = new int[g.degree(v)];
+        for(int i = 0; i < g.degree(v); i++){
+            int w = g.neighbour(v, i);
+            if(g.isAlive(w) && label[w] == c){
+                start[k++] = w;
+            }
+        }
+        if(k <= 1){
+            return new int[0][];
+        }
+
+        generation++;
+        int[][] queue = new int[k][];
+        int[] head = new int[k];
+        int[] tail = new int[k];
+        int[] group = new int[k]; // union find over the searches
+        for(int i = 0; i < k; i++){
+            queue[i] = new int[16];
+            queue[i][tail[i]++] = start[i];
+            seen[start[i]] = generation;
+            by[start[i]] = i;
+            group[i] = i;
+        }
+        int groups = k;
+
+        while(true){
+            for(int i = 0; i < k; i++){
+                if(head[i] == tail[i]){
+                    continue;
+                }
+                int x = queue[i][head[i]++];
+                for(int e = 0; e < g.degree(x); e++){
+                    int y = g.neighbour(x, e);
+                    if(!g.isAlive(y) || label[y] != c){
+                        continue;
+                    }
+                    if(seen[y] == generation){
+                        int a = find(group, i);
+                        int b = find(group, by[y]);
+                        if(a != b){
+                            group[Math.max(a, b)] = Math.min(a, b);
+                            groups--;
+                        }
+                        continue;
+                    }
+                    seen[y] = generation;
+                    by[y] = i;
+                    if(tail[i] == queue[i].length){
+                        queue[i] = Arrays.copyOf(queue[i], tail[i] * 2);
+                    }
+                    queue[i][tail[i]++] = y;
+                }
+            }
+            if(groups == 1){
+                return new int[0][]; // all met, still one component
+            }
+
+            // groups still going, the first of them keeps the label
+            int going = -1;
+            boolean more = false;
+            for(int i = 0; i < k; i++){
+                if(head[i] < tail[i]){
+                    int a = find(group, i);
+                    if(going < 0){
+                        going = a;
+                    }else if(a != going){
+                        more = true;
+                        break;
+                    }
+                }
+            }
+            if(more){
+                continue;
+            }
+            if(going < 0){
+                going = find(group, 0); // all ran out, the group of the first neighbour keeps the label
+            }
+            return cut(c, going, group, queue, tail, k);
+        }
+    }
+
+    /**
+     * Nodes of the component of v in the order a breadth first search from v reaches them
+     */
+    public int[] members(int v){
+        int c = label[v];
+        int[] list = new int[size[c]];
+        generation++;
+        int n = 0;
+        list[n++] = v;
+        seen[v] = generation;
+        for(int i = 0; i < n; i++){
+            int x = list[i];
+            for(int e = 0; e < g.degree(x); e++){
+                int y = g.neighbour(x, e);
+                if(g.isAlive(y) && label[y] == c && seen[y] != generation){
+                    seen[y] = generation;
+                    list[n++] = y;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gives each group of searches other than the one keeping label c a new label
+     */
+    private int[][] cut(int c, int going, int[] group, int[][] queue, int[] tail, int k){
+        int[][] parts = new int[k][];
+        int count_parts = 0;
+        for(int i = 0; i < k; i++){
+            int a = find(group, i);
+            if(a != i || a == going){
+                continue; // not the first search of its group, or the rest of the component
+            }
+            int n = 0;
+            for(int j = i; j < k; j++){
+                if(find(group, j) == a){
+                    n += tail[j];
+                }
+            }
+            int[] part = new int[n];
+            int d = newLabel();
+            n = 0;
+            for(int j = i; j < k; j++){
+                if(find(group, j) == a){
+                    for(int q = 0; q < tail[j]; q++){
+                        part[n++] = queue[j][q];
+                        label[queue[j][q]] = d;
+                    }
+                }
+            }
+            size[d] = n;
+            size[c] -= n;
+            parts[count_parts++] = part;
+        }
+        return Arrays.copyOf(parts, count_parts);
+    }
+
+    private static int find(int[] group, int i){
+        while(group[i] != i){
+            group[i] = group[group[i]];
+            i = group[i];
+        }
+        return i;
+    }
+
+    private int newLabel(){
+        if(count == size.length){
+            size = Arrays.copyOf(size, count * 2);
+        }
+        size[count] = 0;
+        return count++;
+    }
+
+    // ========================== CHECKPOINTS ========================
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(count);
+        Snapshot.writeInts(out, size, count);
+        Snapshot.writeInts(out, label, label.length);
+    }
+
+    /**
+     * Reads what write() wrote for the same graph
+     */
+    public void read(DataInput in) throws IOException {
+        count = in.readInt();
+        size = new int[Math.max(count, 4)];
+        Snapshot.readInts(in, size, count);
+        Snapshot.readInts(in, label, label.length);
+    }
+}
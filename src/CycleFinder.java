@@ -0,0 +1,549 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/*
+Searches for a Hamiltonian cycle through a set of nodes, used by the network to form the ring.
+
+- graph is given as compressed rows of node indexes (see Graph): the neighbours of node v are
+  targets[offsets[v]] .. targets[offsets[v+1]-1] in increasing order, only members are used
+- the preferred successor of a node is tried first, the network sets it to the current ring order
+  so an unbroken ring is found straight away and a new ring stays close to the old one, the other
+  candidates are tried fewest onward moves first (Warnsdorff)
+- depth first search with an explicit stack so large rings do not overflow the thread stack, on
+  symmetric graphs a move is pruned when it leaves an unvisited node without two ways in and out
+- the depth first search gets a quarter of the time budget and a step limit. If it neither finds
+  a cycle nor proves there is none, symmetric graphs get the rest for rotation-extension (Posa):
+  extend the path at its head, when stuck reverse the part of the path after a neighbour of the
+  head to get a new head. The first path starts where a chain of preferred successors begins
+- if the budget runs out small graphs fall back to an exact bitmask DP
+*/
+public class CycleFinder {
+
+    public static final long DEFAULT_BUDGET_MS = 2000;
+    public static final int DP_LIMIT = 20; // largest number of nodes for the bitmask DP fallback
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final BitSet members;
+
+    // searches find() may run, a test restricts it to one to check they agree
+    static final int DFS = 1;
+    static final int ROTATIONS = 2;
+    static final int DP = 4;
+    private int searches = DFS | ROTATIONS | DP;
+
+    private int[] prefer; // preferred successor of each node or -1
+    private Random random = new Random(1); // fixed seed so the same graph gives the same ring
+    private long budget_ns = DEFAULT_BUDGET_MS * 1000000L;
+    private boolean timed_out = false;
+
+    // search state, indexed by node index
+    private BitSet visited;
+    private int[] unvisited_deg; // member neighbours not yet on the path
+    private int[] mark; // stamp of the neighbours of the current head
+    private int stamp = 0;
+    private BitSet next_to_start; // nodes that can close the cycle
+    private boolean symmetric;
+
+    public CycleFinder(int[] offsets, int[] targets, BitSet members){
+        this.offsets = offsets;
+        this.targets = targets;
+        this.members = members;
+    }
+
+    public void setTimeBudget(long ms){
+        budget_ns = ms * 1000000L;
+    }
+
+    /**
+     * Limits find() to the given searches (DFS, ROTATIONS, DP), the ones left out count as having
+     * run out of time. All of them unless set
+     */
+    void setSearches(int searches){
+        this.searches = searches;
+    }
+
+    /**
+     * Preferred successor of each node, used to break ties between equally good moves
+     */
+    public void setPreferred(int[] prefer){
+        this.prefer = prefer;
+    }
+
+    /**
+     * True if the last search ran out of time rather than proving there is no cycle
+     */
+    public boolean timedOut(){
+        return timed_out;
+    }
+
+    /**
+     * Returns the nodes of a Hamiltonian cycle over the members starting at start, null if there is none
+     * or the budget ran out. The last node has start as a neighbour.
+     */
+    public int[] find(int start){
+        timed_out = false;
+        int V = members.cardinality();
+
+        if(V == 1){
+            return hasEdge(start, start) ? new int[]{start} : null;
+        }
+
+        int n = offsets.length - 1;
+        visited = new BitSet(n);
+        unvisited_deg = new int[n];
+        mark = new int[n];
+        next_to_start = new BitSet(n);
+        symmetric = true;
+
+        // degrees and whether every link goes both ways
+        for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)){
+            for(int e = offsets[v]; e < offsets[v + 1]; e++){
+                int w = targets[e];
+                if(w != v && members.get(w)){
+                    unvisited_deg[v]++;
+                    if(symmetric && !hasEdge(w, v)){
+                        symmetric = false;
+                    }
+                    if(w == start){
+                        next_to_start.set(v);
+                    }
+                }
+            }
+        }
+
+        // quick rejection of nodes that can not be entered and left
+        for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)){
+            if(unvisited_deg[v] == 0 || (V > 2 && symmetric && unvisited_deg[v] < 2)){
+                return null;
+            }
+        }
+
+        long now = System.nanoTime();
+        int[] path = null;
+        timed_out = true;
+        if((searches & DFS) != 0){
+            timed_out = false;
+            path = search(start, V, now + budget_ns / 4);
+        }
+
+        if(path == null && timed_out && symmetric && (searches & ROTATIONS) != 0){
+            timed_out = false;
+            path = searchRotations(start, V, now + budget_ns);
+        }
+
+        if(path == null && timed_out && V <= DP_LIMIT && (searches & DP) != 0){
+            timed_out = false;
+            path = searchDP(start, V, -1);
+        }
+        return path;
+    }
+
+    /**
+     * Returns a path from start to end through every member, null if there is none. Exact search,
+     * only for at most DP_LIMIT members.
+     */
+    public int[] findPath(int start, int end){
+        int V = members.cardinality();
+        if(V > DP_LIMIT){
+            throw new IllegalArgumentException("path search is limited to " + DP_LIMIT + " nodes");
+        }
+        return searchDP(start, V, end);
+    }
+
+    /**
+     * Iterative depth first search, each depth keeps its sorted candidates in a shared pool
+     */
+    private int[] search(int start, int V, long deadline){
+        int[] path = new int[V];
+        int[] pool = new int[targets.length + 1];
+        int[] cand_start = new int[V];
+        int[] cand_next = new int[V];
+        int[] cand_end = new int[V];
+
+        path[0] = start;
+        visit(start);
+        int depth = 0;
+        cand_end[0] = pushCandidates(start, pool, 0);
+        cand_next[0] = 0;
+        cand_start[0] = 0;
+
+        long steps = 0;
+        long step_limit = 2L * V + 100000; // past this the search is lost deep in the tree
+        while(true){
+            if((++steps & 4095) == 0 && (steps > step_limit || System.nanoTime() > deadline)){
+                resetSearch(path, depth + 1);
+                timed_out = true;
+                return null;
+            }
+
+            if(cand_next[depth] == cand_end[depth]){
+                // no move left from here, backtrack
+                if(depth == 0){
+                    return null;
+                }
+                unvisit(path[depth]);
+                depth--;
+                continue;
+            }
+
+            int v = pool[cand_next[depth]++];
+            int u = path[depth];
+            visit(v);
+            path[depth + 1] = v;
+
+            if(depth + 1 == V - 1){
+                // every node is on the path, done if it closes back to the start
+                if(hasEdge(v, start)){
+                    return path;
+                }
+                unvisit(v);
+                continue;
+            }
+
+            if(symmetric && strands(u, v, start)){
+                unvisit(v);
+                continue;
+            }
+
+            depth++;
+            cand_start[depth] = cand_end[depth - 1];
+            cand_next[depth] = cand_start[depth];
+            cand_end[depth] = pushCandidates(v, pool, cand_start[depth]);
+        }
+    }
+
+    /**
+     * Rotation-extension search, the path grows at its head and when the head has no unvisited
+     * neighbour the path after one of its visited neighbours is reversed, making a new head.
+     * Restarts from a random node when it stops making progress. Only valid on symmetric graphs
+     * as reversing the path reverses its links.
+     */
+    private int[] searchRotations(int start, int V, long deadline){
+        int n = offsets.length - 1;
+        int[] path = new int[V];
+        int[] pos = new int[n]; // position of each visited node in path
+        int[] order = new int[V]; // members, to pick restart nodes from
+        int k = 0;
+        for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)){
+            order[k++] = v;
+        }
+
+        int first = chainStart(start);
+        long steps = 0;
+        while(true){
+            // (re)start the path
+            int len = 1;
+            path[0] = first;
+            pos[first] = 0;
+            visit(first);
+            int tail_stamp = markNeighbours(first);
+            int best = 1;
+            long stale = 0; // rotations since the path last grew
+
+            while(stale < 50L * V){
+                if((++steps & 1023) == 0 && System.nanoTime() > deadline){
+                    resetSearch(path, len);
+                    timed_out = true;
+                    return null;
+                }
+
+                int head = path[len - 1];
+                int w = bestUnvisited(head);
+                if(w >= 0){
+                    // extend
+                    path[len] = w;
+                    pos[w] = len++;
+                    visit(w);
+                    if(len > best){
+                        best = len;
+                        stale = 0;
+                    }
+                    continue;
+                }
+
+                if(len == V && hasEdge(head, path[0])){
+                    // rotate the cycle so it starts at start
+                    int[] cycle = new int[V];
+                    int s = pos[start];
+                    for(int i = 0; i < V; i++){
+                        cycle[i] = path[(s + i) % V];
+                    }
+                    resetSearch(path, len);
+                    return cycle;
+                }
+
+                // rotate about a visited neighbour of the head that is not its predecessor, prefer one
+                // that gives a head able to extend (or close the cycle when the path is full) with the
+                // shortest reversal, otherwise a random one
+                int pivot = -1;
+                int fallback = -1;
+                int choices = 0;
+                for(int e = offsets[head]; e < offsets[head + 1]; e++){
+                    int x = targets[e];
+                    if(!members.get(x) || !visited.get(x) || pos[x] >= len - 2){
+                        continue;
+                    }
+                    int new_head = path[pos[x] + 1];
+                    boolean good = len < V ? unvisited_deg[new_head] > 0 : mark[new_head] == tail_stamp;
+                    if(good && (pivot < 0 || pos[x] > pos[pivot])){
+                        pivot = x;
+                    }
+                    if(random.nextInt(++choices) == 0){
+                        fallback = x;
+                    }
+                }
+                if(pivot < 0){
+                    if(fallback < 0){
+                        break;
+                    }
+                    pivot = fallback;
+                    if(random.nextInt(8) == 0){
+                        // swap the ends so the other end gets rotated for a while
+                        reverse(path, pos, 0, len - 1);
+                        tail_stamp = markNeighbours(path[0]);
+                        stale++;
+                        continue;
+                    }
+                }
+                reverse(path, pos, pos[pivot] + 1, len - 1);
+                stale++;
+            }
+
+            resetSearch(path, len);
+            first = order[random.nextInt(V)];
+        }
+    }
+
+    /**
+     * Reverses path[i..j] keeping pos up to date
+     */
+    private void reverse(int[] path, int[] pos, int i, int j){
+        for(; i < j; i++, j--){
+            int t = path[i];
+            path[i] = path[j];
+            path[j] = t;
+            pos[path[i]] = i;
+            pos[path[j]] = j;
+        }
+    }
+
+    /**
+     * Stamps the neighbours of v in mark, returns the stamp used
+     */
+    private int markNeighbours(int v){
+        stamp++;
+        for(int e = offsets[v]; e < offsets[v + 1]; e++){
+            mark[targets[e]] = stamp;
+        }
+        return stamp;
+    }
+
+    /**
+     * The preferred successor of v if it is an unvisited neighbour, otherwise the unvisited member
+     * neighbour with the fewest onward moves (random on ties), -1 if there is none
+     */
+    private int bestUnvisited(int v){
+        if(prefer != null && prefer[v] >= 0 && members.get(prefer[v]) && !visited.get(prefer[v])
+                && hasEdge(v, prefer[v])){
+            return prefer[v];
+        }
+        int best = -1;
+        int ties = 0;
+        for(int e = offsets[v]; e < offsets[v + 1]; e++){
+            int w = targets[e];
+            if(!members.get(w) || visited.get(w)){
+                continue;
+            }
+            if(best < 0 || unvisited_deg[w] < unvisited_deg[best]){
+                best = w;
+                ties = 1;
+            }else if(unvisited_deg[w] == unvisited_deg[best] && random.nextInt(++ties) == 0){
+                best = w;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A member that is not the preferred successor of another member, the start of a chain of
+     * preferred successors, or start if there is no such member
+     */
+    private int chainStart(int start){
+        if(prefer == null){
+            return start;
+        }
+        BitSet pointed = new BitSet(offsets.length - 1);
+        for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)){
+            if(prefer[v] >= 0 && members.get(prefer[v]) && hasEdge(v, prefer[v])){
+                pointed.set(prefer[v]);
+            }
+        }
+        for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)){
+            if(!pointed.get(v)){
+                return v;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Unvisits the first len nodes of path so the degree counts are back to the start state
+     */
+    private void resetSearch(int[] path, int len){
+        for(int i = 0; i < len; i++){
+            unvisit(path[i]);
+        }
+    }
+
+    /**
+     * Writes the unvisited member neighbours of v into pool from pos, best move first, returns the end
+     */
+    private int pushCandidates(int v, int[] pool, int pos){
+        int begin = pos;
+        for(int e = offsets[v]; e < offsets[v + 1]; e++){
+            int w = targets[e];
+            if(members.get(w) && !visited.get(w)){
+                // insertion sort, lists are as long as the degree
+                int i = pos++;
+                while(i > begin && better(w, pool[i - 1], v)){
+                    pool[i] = pool[i - 1];
+                    i--;
+                }
+                pool[i] = w;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Preferred successor of from first, then Warnsdorff order: fewer onward moves first
+     */
+    private boolean better(int a, int b, int from){
+        if(prefer != null && (prefer[from] == a || prefer[from] == b)){
+            return prefer[from] == a;
+        }
+        return unvisited_deg[a] < unvisited_deg[b];
+    }
+
+    /**
+     * True if moving the head from u to v leaves a neighbour of u that can no longer be both entered
+     * and left, it needs two of: unvisited neighbours, the new head, a link back to the start
+     */
+    private boolean strands(int u, int v, int start){
+        markNeighbours(v);
+        for(int e = offsets[u]; e < offsets[u + 1]; e++){
+            int w = targets[e];
+            if(w == v || !members.get(w) || visited.get(w)){
+                continue;
+            }
+            int ways = unvisited_deg[w] + (next_to_start.get(w) ? 1 : 0) + (mark[w] == stamp ? 1 : 0);
+            if(ways < 2){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void visit(int v){
+        visited.set(v);
+        for(int e = offsets[v]; e < offsets[v + 1]; e++){
+            if(targets[e] != v){
+                unvisited_deg[targets[e]]--;
+            }
+        }
+    }
+
+    private void unvisit(int v){
+        visited.clear(v);
+        for(int e = offsets[v]; e < offsets[v + 1]; e++){
+            if(targets[e] != v){
+                unvisited_deg[targets[e]]++;
+            }
+        }
+    }
+
+    private boolean hasEdge(int v, int w){
+        return Arrays.binarySearch(targets, offsets[v], offsets[v + 1], w) >= 0;
+    }
+
+    /**
+     * Exact search over subsets of at most DP_LIMIT nodes. reach[mask] has bit v set when a path from
+     * the start visits exactly the nodes in mask and ends at v. Finds a path ending at end, or a cycle
+     * when end is -1.
+     */
+    private int[] searchDP(int start, int V, int end){
+        // local numbering with the start as 0
+        int[] local_to_node = new int[V];
+        int[] node_to_local = new int[offsets.length - 1];
+        local_to_node[0] = start;
+        int k = 1;
+        for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)){
+            if(v != start){
+                node_to_local[v] = k;
+                local_to_node[k++] = v;
+            }
+        }
+
+        int[] adj = new int[V];
+        for(int i = 0; i < V; i++){
+            int v = local_to_node[i];
+            for(int e = offsets[v]; e < offsets[v + 1]; e++){
+                int w = targets[e];
+                if(members.get(w) && w != v){
+                    adj[i] |= 1 << (w == start ? 0 : node_to_local[w]);
+                }
+            }
+        }
+
+        int full = (1 << V) - 1;
+        int[] reach = new int[1 << V];
+        reach[1] = 1;
+        for(int mask = 1; mask <= full; mask += 2){ // masks containing the start
+            int ends = reach[mask];
+            while(ends != 0){
+                int v = Integer.numberOfTrailingZeros(ends);
+                ends &= ends - 1;
+                int moves = adj[v] & ~mask;
+                while(moves != 0){
+                    int w = moves & -moves;
+                    moves ^= w;
+                    reach[mask | w] |= w;
+                }
+            }
+        }
+
+        // pick an end that closes the cycle (or the given end) and walk back through the table
+        int last = -1;
+        for(int v = 1; v < V; v++){
+            boolean ok = end < 0 ? (adj[v] & 1) != 0 : local_to_node[v] == end;
+            if((reach[full] >> v & 1) != 0 && ok){
+                last = v;
+                break;
+            }
+        }
+        if(last < 0){
+            return null;
+        }
+
+        int[] path = new int[V];
+        int mask = full;
+        int cur = last;
+        for(int pos = V - 1; pos > 0; pos--){
+            path[pos] = local_to_node[cur];
+            int prev_mask = mask ^ (1 << cur);
+            int prev = -1;
+            for(int u = 0; u < V; u++){
+                if((reach[prev_mask] >> u & 1) != 0 && (adj[u] >> cur & 1) != 0){
+                    prev = u;
+                    break;
+                }
+            }
+            mask = prev_mask;
+            cur = prev;
+        }
+        path[0] = start;
+        return path;
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+Reads the ELECT/FAIL event file one event at a time, lines look like
+
+    ELECT <round> <node> [<node> ...]
+    FAIL <round> <node>
+
+- rounds must increase from one line to the next, the network only looks for the next event
+- an empty line ends the events, as it always has
+*/
+public class EventReader implements Closeable {
+
+    public static final int ELECT = 0;
+    public static final int FAIL = 1;
+
+    private final InputReader in;
+
+    // the current event
+    private int type;
+    private int round;
+    private int[] nodes = new int[4];
+    private int node_count;
+    private long line;
+    private long events = 0; // number of events read so far
+
+    public EventReader(String file_name) throws IOException {
+        in = new InputReader(file_name);
+    }
+
+    /**
+     * Reads the next event, returns false when the events have finished
+     */
+    public boolean next() throws IOException {
+        if(!in.nextLine() || !in.hasNext()){
+            return false;
+        }
+
+        int previous_round = events > 0 ? round : 0;
+        type = in.nextWord("ELECT", "FAIL");
+        if(!in.hasNext()){
+            throw in.error("missing round");
+        }
+        round = in.nextInt();
+        if(round <= previous_round){
+            throw in.error("round " + round + " is not after the round of the previous event (" + previous_round + ")");
+        }
+
+        node_count = 0;
+        while(in.hasNext()){
+            if(node_count == nodes.length){
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            nodes[node_count++] = in.nextInt();
+        }
+        if(node_count == 0){
+            throw in.error((type == ELECT ? "ELECT" : "FAIL") + " line has no nodes");
+        }
+
+        line = in.lineNumber();
+        events++;
+        return true;
+    }
+
+    /**
+     * ELECT or FAIL
+     */
+    public int type(){
+        return type;
+    }
+
+    public int round(){
+        return round;
+    }
+
+    public int nodeCount(){
+        return node_count;
+    }
+
+    public int node(int i){
+        return nodes[i];
+    }
+
+    /**
+     * Number of events read so far, the current one included
+     */
+    public long count(){
+        return events;
+    }
+
+    /**
+     * Line of the event file the current event came from
+     */
+    public long line(){
+        return line;
+    }
+
+    /**
+     * Prefix for messages about the current event, e.g. "ds_fail.txt:3"
+     */
+    public String where(){
+        return in.fileName() + ":" + line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
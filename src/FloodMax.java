@@ -0,0 +1,156 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+FloodMax election over the whole graph rather than the ring.
+
+- a node taking part keeps the largest id it has seen, each round it reads every message in its
+  mailbox and at the end of the round sends the largest id to all its live neighbours if it grew
+- a node joins when it starts an election or hears the first FLOOD of one
+- the diameter is not known, a connected graph of n nodes has a diameter below n so a node decides
+  2(n-1) rounds after joining, n the size of the ring of its component: the largest id has reached
+  it by then even if its node joined last. The node holding its own id is the leader, the others
+  take the largest id as the leader
+- messages are only sent when the largest id changes, O(m * changes) rather than one per link per round
+*/
+public class FloodMax implements LeaderElectionAlgorithm {
+
+    private Network network;
+
+    // by node index
+    private int[] largest; // largest id seen
+    private int[] left; // rounds left before deciding, -1 when not taking part
+    private boolean[] changed; // largest grew this round
+
+    private final AtomicInteger taking_part = new AtomicInteger(); // nodes with left >= 0
+
+    @Override
+    public String name(){
+        return "floodmax";
+    }
+
+    @Override
+    public void init(Network network){
+        this.network = network;
+        largest = new int[network.size()];
+        left = new int[network.size()];
+        Arrays.fill(left, -1);
+        changed = new boolean[network.size()];
+        taking_part.set(0);
+    }
+
+    @Override
+    public void start(Node node){
+        join(node);
+    }
+
+    @Override
+    public void receive(Node node, long msg){
+        int index = node.getIndex();
+        if(Message.type(msg) != Message.FLOOD){
+            node.console().println("MALFORMED MESSAGE: " + Message.toString(msg));
+            return;
+        }
+        join(node);
+        if(Message.payload(msg) > largest[index]){
+            largest[index] = Message.payload(msg);
+            changed[index] = true;
+        }
+    }
+
+    /**
+     * Sends the largest id if it changed and decides once the rounds are up
+     */
+    @Override
+    public void endRound(Node node){
+        int index = node.getIndex();
+        if(left[index] < 0){
+            return;
+        }
+        if(changed[index]){
+            changed[index] = false;
+            node.sendToNeighbours(Message.make(Message.FLOOD, largest[index]));
+        }
+        if(left[index] == 0){
+            left[index] = -1;
+            if(largest[index] == node.getNodeId()){
+                node.declareLeader();
+            }else{
+                node.setLeaderNode(largest[index]);
+            }
+            taking_part.decrementAndGet();
+        }else{
+            left[index]--;
+        }
+    }
+
+    /**
+     * Nodes taking part count down their rounds even when nothing arrives
+     */
+    @Override
+    public boolean active(Node node){
+        return left[node.getIndex()] >= 0;
+    }
+
+    @Override
+    public boolean waiting(){
+        return taking_part.get() > 0;
+    }
+
+    /**
+     * Every message of a round has to be seen before the largest id is sent on
+     */
+    @Override
+    public boolean readsWholeMailbox(){
+        return true;
+    }
+
+    @Override
+    public boolean sendsToNeighbours(){
+        return true;
+    }
+
+    @Override
+    public void leave(Node node){
+        int index = node.getIndex();
+        if(left[index] >= 0){
+            left[index] = -1;
+            taking_part.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void save(DataOutput out) throws IOException {
+        Snapshot.writeInts(out, largest, largest.length);
+        Snapshot.writeInts(out, left, left.length);
+        Snapshot.writeBooleans(out, changed, changed.length);
+    }
+
+    @Override
+    public void restore(DataInput in) throws IOException {
+        Snapshot.readInts(in, largest, largest.length);
+        Snapshot.readInts(in, left, left.length);
+        Snapshot.readBooleans(in, changed, changed.length);
+        int k = 0;
+        for(int l : left){
+            if(l >= 0){
+                k++;
+            }
+        }
+        taking_part.set(k);
+    }
+
+    private void join(Node node){
+        int index = node.getIndex();
+        if(left[index] >= 0){
+            return;
+        }
+        largest[index] = node.getNodeId();
+        changed[index] = true;
+        left[index] = 2 * Math.max(0, network.ringSize(index) - 1);
+        taking_part.incrementAndGet();
+    }
+}
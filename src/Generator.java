@@ -0,0 +1,316 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+Generates inputs for large runs in the formats Network reads, the same arguments and seed always
+give the same file:
+
+    java Generator graph <file> [options]     graph file as ds_graph.txt
+    java Generator events <file> [options]    ELECT/FAIL script as ds_elect.txt and ds_fail.txt
+
+- the lines of a graph file are in ring order and list the ring neighbours, so the ring is always
+  there, the topology decides the links added to it
+- events are written as they are drawn, only the ids of the graph and which have failed are kept so
+  scripts of millions of events need no more memory than small ones
+*/
+public class Generator {
+
+    // ========================== GRAPHS ========================
+
+    /**
+     * Writes a graph of n nodes, the node at ring position i has id ids[i]. Topologies:
+     *  - ring: the ring alone
+     *  - random: about degree * n / 2 links between random nodes
+     *  - smallworld: each node linked to the degree/2 nearest nodes either side along the ring, links
+     *    beyond the ring moved to a random node with probability rewire (Watts-Strogatz)
+     *  - grid: the ring snakes row by row through a square grid, nodes linked to the nodes above,
+     *    below and beside them
+     */
+    static void graph(String file, int n, String topology, int degree, double rewire, boolean shuffle_ids,
+                      long seed) throws IOException {
+        Random random = new Random(seed);
+        int[] ids = new int[n];
+        for(int i = 0; i < n; i++){
+            ids[i] = i + 1;
+        }
+        if(shuffle_ids){
+            shuffle(ids, random);
+        }
+
+        // links by ring position, both directions are listed
+        Links links = new Links(2 * n);
+        for(int i = 0; i < n; i++){
+            links.add(i, (i + 1) % n);
+        }
+
+        if(topology.equals("random")){
+            long extra = (long) degree * n / 2;
+            for(long e = 0; e < extra; e++){
+                links.add(random.nextInt(n), random.nextInt(n));
+            }
+        }else if(topology.equals("smallworld")){
+            for(int d = 2; d <= degree / 2; d++){
+                for(int i = 0; i < n; i++){
+                    int j = (i + d) % n;
+                    if(random.nextDouble() < rewire){
+                        j = random.nextInt(n);
+                    }
+                    links.add(i, j);
+                }
+            }
+        }else if(topology.equals("grid")){
+            int width = (int) Math.ceil(Math.sqrt(n));
+            int rows = (n + width - 1) / width;
+            int[] position = new int[rows * width]; // ring position of each grid cell row by row, -1 if empty
+            Arrays.fill(position, -1);
+            for(int i = 0; i < n; i++){
+                int row = i / width;
+                int col = row % 2 == 0 ? i % width : width - 1 - i % width;
+                position[row * width + col] = i;
+            }
+            for(int cell = 0; cell < position.length; cell++){
+                if(position[cell] < 0){
+                    continue;
+                }
+                if(cell % width + 1 < width && position[cell + 1] >= 0){
+                    links.add(position[cell], position[cell + 1]);
+                }
+                if(cell + width < position.length && position[cell + width] >= 0){
+                    links.add(position[cell], position[cell + width]);
+                }
+            }
+        }else if(!topology.equals("ring")){
+            throw new IllegalArgumentException("unknown topology " + topology + ", expected ring, random, smallworld or grid");
+        }
+
+        Graph g = links.build(n);
+
+        BufferedWriter w = new BufferedWriter(new FileWriter(file), 1 << 16);
+        StringBuilder line = new StringBuilder();
+        for(int i = 0; i < n; i++){
+            line.setLength(0);
+            line.append(ids[i]);
+            for(int j = 0; j < g.degree(i); j++){
+                line.append(' ').append(ids[g.neighbour(i, j)]);
+            }
+            line.append('\n');
+            w.append(line);
+        }
+        w.close();
+    }
+
+    /**
+     * Links collected in both directions, packed into a Graph which drops duplicates and self links
+     */
+    private static class Links {
+        int[] from;
+        int[] to;
+        int count = 0;
+
+        Links(int capacity){
+            from = new int[capacity];
+            to = new int[capacity];
+        }
+
+        void add(int v, int w){
+            if(count + 2 > from.length){
+                from = Arrays.copyOf(from, from.length * 2);
+                to = Arrays.copyOf(to, from.length);
+            }
+            from[count] = v;
+            to[count++] = w;
+            from[count] = w;
+            to[count++] = v;
+        }
+
+        Graph build(int n){
+            return new Graph(n, from, to, count);
+        }
+    }
+
+    // ========================== EVENTS ========================
+
+    /**
+     * Writes count events for the nodes of a graph file, the first starts an election and the rest
+     * are a FAIL with probability fail, an ELECT otherwise
+     *  - events are gap rounds apart, enough for the election before to finish
+     *  - ELECT is started by initiators distinct live nodes, FAIL picks a live node. Once only three
+     *    nodes are left no more nodes fail
+     */
+    static void events(String file, String graph_file, long count, int gap, double fail, int initiators,
+                       long seed) throws IOException {
+        Random random = new Random(seed);
+
+        // ids of the live nodes are live[0 .. live_count-1], a failed node is swapped past the end
+        int[] live = readIds(graph_file);
+        int live_count = live.length;
+        initiators = Math.min(initiators, live_count);
+        int[] chosen = new int[initiators];
+
+        BufferedWriter w = new BufferedWriter(new FileWriter(file), 1 << 16);
+        StringBuilder line = new StringBuilder();
+        long round = 0;
+        for(long e = 0; e < count; e++){
+            round += gap;
+            if(round > Integer.MAX_VALUE){
+                break; // rounds are ints in the simulator
+            }
+            line.setLength(0);
+            if(e > 0 && live_count > 3 && random.nextDouble() < fail){
+                int i = random.nextInt(live_count);
+                line.append("FAIL ").append(round).append(' ').append(live[i]);
+                live_count--;
+                int t = live[i];
+                live[i] = live[live_count];
+                live[live_count] = t;
+            }else{
+                // partial shuffle of the live ids, the first ones are the initiators
+                int k = Math.min(initiators, live_count);
+                line.append("ELECT ").append(round);
+                for(int i = 0; i < k; i++){
+                    int j = i + random.nextInt(live_count - i);
+                    int t = live[i];
+                    live[i] = live[j];
+                    live[j] = t;
+                    chosen[i] = live[i];
+                }
+                Arrays.sort(chosen, 0, k);
+                for(int i = 0; i < k; i++){
+                    line.append(' ').append(chosen[i]);
+                }
+            }
+            line.append('\n');
+            w.append(line);
+        }
+        w.close();
+    }
+
+    /**
+     * Ids of the nodes of a graph file, the first number of each line
+     */
+    static int[] readIds(String graph_file) throws IOException {
+        int[] ids = new int[1024];
+        int n = 0;
+        InputReader in = new InputReader(graph_file);
+        while(in.nextLine()){
+            if(!in.hasNext()){
+                continue;
+            }
+            if(n == ids.length){
+                ids = Arrays.copyOf(ids, n * 2);
+            }
+            ids[n++] = in.nextInt();
+        }
+        in.close();
+        if(n == 0){
+            throw new IOException(graph_file + ": no nodes");
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    private static void shuffle(int[] a, Random random){
+        for(int i = a.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /*
+    *  Options:
+    *   graph <file>
+    *       --nodes=n                            number of nodes (default 1000)
+    *       --topology=ring|random|smallworld|grid  links besides the ring (default random)
+    *       --degree=d                           extra links per node for random, lattice links per
+    *                                            node for smallworld (default 4)
+    *       --rewire=p                           smallworld rewiring probability (default 0.1)
+    *       --ids=shuffled|ascending             order of the ids round the ring (default shuffled)
+    *       --seed=s                             (default 1)
+    *   events <file>
+    *       --graph=file                         graph the events are for (required)
+    *       --events=n                           number of events (default 1000)
+    *       --gap=rounds                         rounds between events (default 3 * nodes + 10)
+    *       --fail=p                             probability an event is a FAIL (default 0.1)
+    *       --initiators=k                       nodes starting each election (default 1)
+    *       --seed=s                             (default 1)
+    * */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2 || !(args[0].equals("graph") || args[0].equals("events"))){
+            System.out.println("Usage: java Generator graph|events <file> [options]");
+            return;
+        }
+
+        int nodes = 1000;
+        String topology = "random";
+        int degree = 4;
+        double rewire = 0.1;
+        boolean shuffle_ids = true;
+        long seed = 1;
+        String graph_file = null;
+        long events = 1000;
+        int gap = -1;
+        double fail = 0.1;
+        int initiators = 1;
+        try{
+            for(int i = 2; i < args.length; i++){
+                String arg = args[i];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if(arg.startsWith("--nodes=")){
+                    nodes = Integer.parseInt(value);
+                }else if(arg.startsWith("--topology=")){
+                    topology = value;
+                }else if(arg.startsWith("--degree=")){
+                    degree = Integer.parseInt(value);
+                }else if(arg.startsWith("--rewire=")){
+                    rewire = Double.parseDouble(value);
+                }else if(arg.startsWith("--ids=")){
+                    if(!value.equals("shuffled") && !value.equals("ascending")){
+                        System.out.println("ERROR: unknown id order " + value + ", expected shuffled or ascending");
+                        return;
+                    }
+                    shuffle_ids = value.equals("shuffled");
+                }else if(arg.startsWith("--seed=")){
+                    seed = Long.parseLong(value);
+                }else if(arg.startsWith("--graph=")){
+                    graph_file = value;
+                }else if(arg.startsWith("--events=")){
+                    events = Long.parseLong(value);
+                }else if(arg.startsWith("--gap=")){
+                    gap = Integer.parseInt(value);
+                }else if(arg.startsWith("--fail=")){
+                    fail = Double.parseDouble(value);
+                }else if(arg.startsWith("--initiators=")){
+                    initiators = Integer.parseInt(value);
+                }else{
+                    System.out.println("ERROR: unknown option " + arg);
+                    return;
+                }
+            }
+
+            if(args[0].equals("graph")){
+                if(nodes < 1){
+                    System.out.println("ERROR: a graph needs at least one node");
+                    return;
+                }
+                graph(args[1], nodes, topology, degree, rewire, shuffle_ids, seed);
+            }else{
+                if(graph_file == null){
+                    System.out.println("ERROR: events need --graph=file for the node ids");
+                    return;
+                }
+                if(gap < 0){
+                    gap = 3 * readIds(graph_file).length + 10;
+                }
+                if(gap < 1){
+                    System.out.println("ERROR: gap must be at least one round");
+                    return;
+                }
+                events(args[1], graph_file, events, gap, fail, initiators, seed);
+            }
+        }catch(IllegalArgumentException e){
+            System.out.println("ERROR: " + e.getMessage());
+        }
+    }
+}
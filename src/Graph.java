@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+Graph of the network stored as compressed sparse rows over node indexes.
+
+- the neighbours of node v are targets[offsets[v]] .. targets[offsets[v+1]-1], sorted and without
+  duplicates so a link can be checked with a binary search
+- links are directed as given in the graph file, the file is expected to list both directions
+- failed nodes are not removed from the rows, they are cleared from the alive set instead and
+  hasEdge() ignores them
+*/
+public class Graph {
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final BitSet alive;
+
+    /**
+     * Builds the rows from a list of links from[i] -> to[i], i < edges. Nodes are numbered 0..n-1.
+     */
+    public Graph(int n, int[] from, int[] to, int edges){
+        // count links per node then place them, a counting sort on the source
+        offsets = new int[n + 1];
+        for(int i = 0; i < edges; i++){
+            offsets[from[i] + 1]++;
+        }
+        for(int v = 0; v < n; v++){
+            offsets[v + 1] += offsets[v];
+        }
+        int[] fill = Arrays.copyOf(offsets, n);
+        int[] all = new int[edges];
+        for(int i = 0; i < edges; i++){
+            all[fill[from[i]]++] = to[i];
+        }
+
+        // sort each row and drop duplicates and self links, packing the rows down
+        int e = 0;
+        for(int v = 0; v < n; v++){
+            int start = offsets[v];
+            int end = offsets[v + 1];
+            Arrays.sort(all, start, end);
+            offsets[v] = e;
+            for(int i = start; i < end; i++){
+                if(all[i] != v && (e == offsets[v] || all[e - 1] != all[i])){
+                    all[e++] = all[i];
+                }
+            }
+        }
+        offsets[n] = e;
+        targets = Arrays.copyOf(all, e);
+
+        alive = new BitSet(n);
+        alive.set(0, n);
+    }
+
+    public int size(){
+        return offsets.length - 1;
+    }
+
+    /**
+     * Row offsets, neighbours of v are at offsets[v] .. offsets[v+1]-1 of targets()
+     */
+    public int[] offsets(){
+        return offsets;
+    }
+
+    public int[] targets(){
+        return targets;
+    }
+
+    public boolean isAlive(int v){
+        return alive.get(v);
+    }
+
+    /**
+     * Marks a node as failed, its links are ignored from now on
+     */
+    public void fail(int v){
+        alive.clear(v);
+    }
+
+    /**
+     * True if both nodes are alive and v has w as a neighbour
+     */
+    public boolean hasEdge(int v, int w){
+        return alive.get(v) && alive.get(w) && Arrays.binarySearch(targets, offsets[v], offsets[v + 1], w) >= 0;
+    }
+
+    /**
+     * Number of neighbours of v including failed ones
+     */
+    public int degree(int v){
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * The i-th neighbour of v, 0 <= i < degree(v)
+     */
+    public int neighbour(int v, int i){
+        return targets[offsets[v] + i];
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+Hirschberg-Sinclair election on a bidirectional ring, O(n log n) messages.
+
+- a candidate works in phases, in phase k it sends PROBE with its id 2^k hops in both directions
+- a node passes on a probe with a larger id, replying with REPLY once the probe has gone its 2^k
+  hops, and swallows a probe with a smaller id (starting its own election if it had not)
+- a candidate that gets both replies of a phase starts the next one, a probe that comes back to its
+  own candidate has been all the way round so the candidate is the leader and sends LEADER round
+  the ring to its successors
+- the hop count of that probe is the size of the ring, LEADER carries the hops it has left in aux
+  so it stops after one lap even if the leader fails before it gets back
+- the phase, hop count and direction of a message are packed into its aux bits, see probe(). A
+  reply counts down the hops back to its candidate so it is dropped if the candidate has failed, the
+  node that drops it starts an election as the probes of the failed candidate stopped the others
+- the hops of phase k are below 2^k so the phase is kept as the top bit over them, which leaves
+  room for rings of up to 2^26 nodes (MAX_RING)
+*/
+public class HirschbergSinclair implements LeaderElectionAlgorithm {
+
+    // state of a node
+    private static final int IDLE = 0;
+    private static final int CANDIDATE = 1;
+    private static final int RELAY = 2; // has seen a larger id so can not win
+
+    // direction a message travels in, bit 0 of aux
+    private static final int TO_NEXT = 0;
+    private static final int TO_PREV = 1;
+
+    // a phase k probe takes k + 2 aux bits, a ring this size ends by phase 26
+    static final int MAX_RING = 1 << (Message.AUX_BITS - 2);
+
+    // by node index
+    private int[] state;
+    private int[] phase;
+    private int[] replies; // replies received in the current phase
+
+    @Override
+    public String name(){
+        return "hs";
+    }
+
+    @Override
+    public int maxRingSize(){
+        return MAX_RING;
+    }
+
+    @Override
+    public void init(Network network){
+        state = new int[network.size()];
+        phase = new int[network.size()];
+        replies = new int[network.size()];
+    }
+
+    @Override
+    public void start(Node node){
+        int index = node.getIndex();
+        state[index] = CANDIDATE;
+        phase[index] = 0;
+        replies[index] = 0;
+        sendProbes(node);
+    }
+
+    @Override
+    public void receive(Node node, long msg){
+        int id = node.getNodeId();
+        int index = node.getIndex();
+        int msg_id = Message.payload(msg);
+        int aux = Message.aux(msg);
+        int dir = aux & 1;
+        int k = phase(aux);
+        int hops = hops(aux);
+
+        switch(Message.type(msg)){
+            case Message.PROBE:
+                hops++; // a probe has gone at least one hop, see probe()
+                if(msg_id == id){
+                    // own probe came all the way round, the probe from the other side is ignored
+                    if(state[index] == CANDIDATE){
+                        state[index] = IDLE;
+                        node.declareLeader();
+                        if(hops > 1){
+                            node.sendMsg(Message.make(Message.LEADER, hops - 1, id));
+                        }
+                    }
+                }else if(msg_id > id){
+                    state[index] = RELAY;
+                    if(hops < (1 << k)){
+                        send(node, dir, Message.make(Message.PROBE, probe(dir, k, hops), msg_id));
+                    }else{
+                        send(node, 1 - dir, Message.make(Message.REPLY, probe(1 - dir, k, hops - 1), msg_id));
+                    }
+                }else if(state[index] == IDLE){
+                    // smaller id, the probe stops here but this node joins the election
+                    start(node);
+                }
+                break;
+            case Message.REPLY:
+                if(msg_id != id){
+                    // the reply carries the hops left to its candidate, dropped if the candidate failed
+                    if(hops > 0){
+                        send(node, dir, Message.make(Message.REPLY, probe(dir, k, hops - 1), msg_id));
+                    }else if(state[index] != CANDIDATE){
+                        // its probes made the nodes relays, one of them has to stand in its place
+                        start(node);
+                    }
+                }else if(state[index] == CANDIDATE && k == phase[index] && ++replies[index] == 2){
+                    phase[index]++;
+                    replies[index] = 0;
+                    sendProbes(node);
+                }
+                break;
+            case Message.LEADER:
+                // election over, every node goes back to idle ready for the next one
+                state[index] = IDLE;
+                if(msg_id != id){
+                    node.setLeaderNode(msg_id);
+                    if(aux > 1){
+                        node.sendMsg(Message.make(Message.LEADER, aux - 1, msg_id));
+                    }
+                }
+                break;
+            default:
+                node.console().println("MALFORMED MESSAGE: " + Message.toString(msg));
+        }
+    }
+
+    /**
+     * A relay or candidate waits on probes and replies of the old ring, it goes back to idle so a
+     * probe of a new election makes it a candidate again
+     */
+    @Override
+    public void reset(Node node){
+        int index = node.getIndex();
+        state[index] = IDLE;
+        phase[index] = 0;
+        replies[index] = 0;
+    }
+
+    @Override
+    public void save(DataOutput out) throws IOException {
+        Snapshot.writeInts(out, state, state.length);
+        Snapshot.writeInts(out, phase, phase.length);
+        Snapshot.writeInts(out, replies, replies.length);
+    }
+
+    @Override
+    public void restore(DataInput in) throws IOException {
+        Snapshot.readInts(in, state, state.length);
+        Snapshot.readInts(in, phase, phase.length);
+        Snapshot.readInts(in, replies, replies.length);
+    }
+
+    /**
+     * Probes of the current phase of the node, one hop in each direction
+     */
+    private void sendProbes(Node node){
+        int k = phase[node.getIndex()];
+        node.sendMsg(Message.make(Message.PROBE, probe(TO_NEXT, k, 0), node.getNodeId()));
+        node.sendToPrev(Message.make(Message.PROBE, probe(TO_PREV, k, 0), node.getNodeId()));
+    }
+
+    /**
+     * Aux bits of a probe or reply: bit 0 direction, then the hop count below 2^k with bit k + 1 set
+     * to give the phase. A probe has gone 1 to 2^k hops and stores one less, a reply has 0 to 2^k - 1
+     * left
+     */
+    static int probe(int dir, int k, int hops){
+        return (((1 << k) | hops) << 1) | dir;
+    }
+
+    /**
+     * Phase k of the aux bits of a probe or reply
+     */
+    static int phase(int aux){
+        return 31 - Integer.numberOfLeadingZeros(aux >>> 1);
+    }
+
+    /**
+     * Hop count of the aux bits of a probe or reply, as given to probe()
+     */
+    static int hops(int aux){
+        return (aux >>> 1) ^ (1 << phase(aux));
+    }
+
+    private static void send(Node node, int dir, long msg){
+        if(dir == TO_NEXT){
+            node.sendMsg(msg);
+        }else{
+            node.sendToPrev(msg);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Locale;
+
+/*
+Histogram of non negative long values (times in ns, counts, queue depths) with log-linear buckets:
+each power of two is split into 8 buckets, so a value is known to within 12.5%.
+
+- record() is a few shifts and an array increment, nothing is allocated
+- not thread safe, callers recording from several threads lock it
+*/
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS; // buckets per power of two
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value){
+        if(value < 0){
+            value = 0;
+        }
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        if(value < min){
+            min = value;
+        }
+        if(value > max){
+            max = value;
+        }
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one
+     */
+    public void add(Histogram other){
+        for(int i = 0; i < BUCKETS; i++){
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long count(){
+        return count;
+    }
+
+    public long min(){
+        return count == 0 ? 0 : min;
+    }
+
+    public long max(){
+        return max;
+    }
+
+    public double mean(){
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Value below which the given fraction of the values fall, the top of the bucket it is in
+     */
+    public long percentile(double fraction){
+        if(count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= rank){
+                return Math.min(max, Math.max(min, highest(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * JSON object with the count, min, mean, percentiles and max
+     */
+    public String toJson(){
+        return String.format(Locale.ROOT, "{\"count\": %d, \"min\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d}",
+                count, min(), mean(), percentile(0.5), percentile(0.9), percentile(0.99), max);
+    }
+
+    private static int bucket(long value){
+        if(value < SUB){
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * Largest value that falls in bucket b
+     */
+    private static long highest(int b){
+        if(b < SUB){
+            return b;
+        }
+        int exp = (b >> SUB_BITS) + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        return ((long) (SUB + (b & (SUB - 1))) << (exp - SUB_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+Streaming reader for the graph and event files, reads blocks from a file channel and parses numbers
+straight from the bytes so no String is created per line or per number.
+
+- words and numbers are separated by spaces or tabs, lines end with \n or \r\n
+- errors are reported as IOExceptions naming the file and line, e.g. "ds_graph.txt:4: expected a number"
+*/
+public class InputReader implements Closeable {
+
+    private static final int BLOCK = 1 << 16;
+
+    private final String name;
+    private final FileChannel channel;
+    private final byte[] buf = new byte[BLOCK];
+    private final ByteBuffer block = ByteBuffer.wrap(buf);
+    private int pos = 0;
+    private int limit = 0;
+
+    private long line = 0; // current line number, 0 before the first call to nextLine()
+
+    public InputReader(String file_name) throws IOException {
+        name = file_name;
+        channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.READ);
+    }
+
+    /**
+     * Moves to the start of the next line, skipping what is left of the current one.
+     * Returns false at the end of the file.
+     */
+    public boolean nextLine() throws IOException {
+        if(line > 0){
+            int c;
+            while((c = read()) != -1 && c != '\n'){
+                // rest of the line is ignored
+            }
+        }
+        if(peek() == -1){
+            return false;
+        }
+        line++;
+        return true;
+    }
+
+    /**
+     * True if there is another word or number on the current line
+     */
+    public boolean hasNext() throws IOException {
+        skipBlanks();
+        int c = peek();
+        return c != -1 && c != '\n';
+    }
+
+    /**
+     * Parses the next number on the current line
+     */
+    public int nextInt() throws IOException {
+        skipBlanks();
+        boolean negative = false;
+        if(peek() == '-'){
+            negative = true;
+            read();
+        }
+
+        long value = 0;
+        int digits = 0;
+        int c;
+        while((c = peek()) >= '0' && c <= '9'){
+            value = value * 10 + (c - '0');
+            if(value > (long) Integer.MAX_VALUE + 1){
+                throw error("number too large");
+            }
+            read();
+            digits++;
+        }
+        if(digits == 0 || !endOfWord(c)){
+            throw error("expected a number");
+        }
+        value = negative ? -value : value;
+        if(value > Integer.MAX_VALUE){
+            throw error("number too large");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the next word of the current line and returns its position in words, the word is matched
+     * byte by byte. Throws an error naming the expected words if it is none of them.
+     */
+    public int nextWord(String... words) throws IOException {
+        skipBlanks();
+        boolean[] possible = new boolean[words.length];
+        Arrays.fill(possible, true);
+        int length = 0;
+        int c;
+        while(!endOfWord(c = peek())){
+            for(int i = 0; i < words.length; i++){
+                possible[i] = possible[i] && length < words[i].length() && words[i].charAt(length) == c;
+            }
+            read();
+            length++;
+        }
+        for(int i = 0; i < words.length; i++){
+            if(possible[i] && words[i].length() == length){
+                return i;
+            }
+        }
+        throw error("expected " + String.join(" or ", words));
+    }
+
+    /**
+     * Line number of the current line, starting at 1
+     */
+    public long lineNumber(){
+        return line;
+    }
+
+    public String fileName(){
+        return name;
+    }
+
+    /**
+     * Builds an exception for a problem on the current line
+     */
+    public IOException error(String message){
+        return new IOException(name + ":" + line + ": " + message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean endOfWord(int c){
+        return c == -1 || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private void skipBlanks() throws IOException {
+        int c;
+        while((c = peek()) == ' ' || c == '\t' || c == '\r'){
+            read();
+        }
+    }
+
+    private int peek() throws IOException {
+        if(pos == limit && !fill()){
+            return -1;
+        }
+        return buf[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if(pos == limit && !fill()){
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        block.clear();
+        int n;
+        do{
+            n = channel.read(block);
+        }while(n == 0);
+        if(n < 0){
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
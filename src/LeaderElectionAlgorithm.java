@@ -0,0 +1,124 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+Leader election algorithm run by the nodes, the round engine hands every message a node takes from
+its mailbox to the algorithm of the network.
+
+- one instance serves all the nodes of a network, per node state is kept in arrays indexed by the
+  node index (Node.getIndex()) so each node only touches its own entries
+- an algorithm sends through the node: sendMsg() to the successor in the ring, sendToPrev() to the
+  predecessor and sendToNeighbours() to every live neighbour in the graph, at most one message per
+  direction per round
+- the node that wins calls Node.declareLeader(), the others learn the leader with setLeaderNode()
+- save() and restore() carry the per node state through a checkpoint (see Snapshot)
+*/
+public interface LeaderElectionAlgorithm {
+
+    /**
+     * Name used on the command line and in benchmark results
+     */
+    String name();
+
+    /**
+     * Called when the algorithm is given to a network, allocates the per node state for every node
+     * index of the network
+     */
+    void init(Network network);
+
+    /**
+     * The node starts an election, as told by the event file or the failure of a neighbour
+     */
+    void start(Node node);
+
+    /**
+     * The node handles one message from its mailbox
+     */
+    void receive(Node node, long msg);
+
+    /**
+     * Called for every node at the end of each of its rounds, for algorithms that act after a number
+     * of rounds rather than on a message
+     */
+    default void endRound(Node node){
+    }
+
+    /**
+     * True if the node has to run its round even when its mailbox is empty, for algorithms that
+     * act from endRound(). Nodes with an empty mailbox are otherwise not run (see Network)
+     */
+    default boolean active(Node node){
+        return false;
+    }
+
+    /**
+     * True if the node should handle every message in its mailbox each round rather than one, for
+     * algorithms that only send from endRound()
+     */
+    default boolean readsWholeMailbox(){
+        return false;
+    }
+
+    /**
+     * True while some node is counting rounds and will still act without receiving a message, the
+     * network does not finish the simulation until it is false
+     */
+    default boolean waiting(){
+        return false;
+    }
+
+    /**
+     * True if the algorithm sends over the links of the graph with sendToNeighbours() rather than
+     * round the ring, which needs the whole graph in one process
+     */
+    default boolean sendsToNeighbours(){
+        return false;
+    }
+
+    /**
+     * Largest ring the algorithm can run on, limited by the aux bits its messages count hops in
+     */
+    default int maxRingSize(){
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Called for a node that stops running because it failed, so it must not keep the simulation
+     * waiting
+     */
+    default void leave(Node node){
+    }
+
+    /**
+     * Called for each node of a ring a repair has formed anew, the messages of an election on the old
+     * ring are gone so the node must not wait on them
+     */
+    default void reset(Node node){
+    }
+
+    /**
+     * Writes the per node state for a checkpoint of the network, taken between rounds
+     */
+    void save(DataOutput out) throws IOException;
+
+    /**
+     * Reads the state save() wrote, after init() with a network of the same nodes
+     */
+    void restore(DataInput in) throws IOException;
+
+    /**
+     * Returns a new instance of the algorithm with the given name, null if there is none
+     *  - cr: Chang-Roberts, unidirectional ring, O(n^2) messages in the worst case
+     *  - hs: Hirschberg-Sinclair, bidirectional ring, O(n log n) messages
+     *  - floodmax: FloodMax over the whole graph
+     */
+    static LeaderElectionAlgorithm byName(String name){
+        switch(name){
+            case "cr": return new ChangRoberts();
+            case "hs": return new HirschbergSinclair();
+            case "floodmax": return new FloodMax();
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Queue of incoming messages for a node, a ring buffer of packed messages (see Message).
+
+- add and poll are O(1), nothing is allocated once the buffer is large enough
+- the buffer has a fixed capacity, if it fills up it doubles rather than drop a message as the
+  election algorithms do not tolerate message loss
+- records the largest number of messages waiting at once (high water mark)
+*/
+public class Mailbox {
+
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private long[] buffer; // length is a power of two
+    private int head = 0; // index of the oldest message
+    private int size = 0;
+
+    private int high_water = 0;
+
+    public Mailbox(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Mailbox(int capacity){
+        buffer = new long[Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1];
+    }
+
+    /**
+     * Adds a message to the back of the queue
+     */
+    public void add(long msg){
+        if(size == buffer.length){
+            grow();
+        }
+        buffer[(head + size) & (buffer.length - 1)] = msg;
+        size++;
+        if(size > high_water){
+            high_water = size;
+        }
+    }
+
+    /**
+     * Removes and returns the oldest message, the mailbox must not be empty
+     */
+    public long poll(){
+        long msg = buffer[head];
+        head = (head + 1) & (buffer.length - 1);
+        size--;
+        return msg;
+    }
+
+    /**
+     * The i-th oldest message, 0 <= i < size(), left in the queue
+     */
+    public long peek(int i){
+        return buffer[(head + i) & (buffer.length - 1)];
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public void clear(){
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Largest number of messages that were waiting at the same time
+     */
+    public int highWaterMark(){
+        return high_water;
+    }
+
+    /**
+     * Raises the high water mark to at least the given one, for a mailbox restored from a checkpoint
+     */
+    public void raiseHighWaterMark(int mark){
+        high_water = Math.max(high_water, mark);
+    }
+
+    private void grow(){
+        long[] bigger = new long[buffer.length * 2];
+        for(int i = 0; i < size; i++){
+            bigger[i] = buffer[(head + i) & (buffer.length - 1)];
+        }
+        buffer = bigger;
+        head = 0;
+    }
+}
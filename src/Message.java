@@ -0,0 +1,68 @@
+/*
+Messages passed between nodes are packed into a single long so sending them creates no garbage:
+
+- top 4 bits: type of the message (ELECT, FORWARD, LEADER, ...)
+- next 28 bits: aux, extra fields an algorithm needs besides the node id, e.g. the phase, hop count
+  and direction of a Hirschberg-Sinclair probe. 0 for the Chang-Roberts messages
+- low 32 bits: payload, the node id carried by the message
+
+The text form ("FORWARD 20") is only built when a message is logged.
+*/
+public final class Message {
+
+    // types of message, NONE is never sent and marks an empty slot
+    public static final int NONE = 0;
+    public static final int START_ELECT = 1; // pseudo message from the network to start an election
+    public static final int ELECT = 2;
+    public static final int FORWARD = 3;
+    public static final int LEADER = 4;
+    public static final int PROBE = 5; // Hirschberg-Sinclair
+    public static final int REPLY = 6; // Hirschberg-Sinclair
+    public static final int FLOOD = 7; // FloodMax
+
+    public static final int AUX_BITS = 28;
+
+    private static final String[] TYPE_NAMES = {"NONE", "START_ELECT", "ELECT", "FORWARD", "LEADER", "PROBE", "REPLY", "FLOOD"};
+
+    private Message(){
+    }
+
+    /**
+     * Packs a type and payload into a message
+     */
+    public static long make(int type, int payload){
+        return make(type, 0, payload);
+    }
+
+    /**
+     * Packs a type, aux fields and payload into a message, aux must fit in AUX_BITS bits
+     */
+    public static long make(int type, int aux, int payload){
+        if((aux >>> AUX_BITS) != 0){
+            throw new IllegalArgumentException("aux " + aux + " does not fit in " + AUX_BITS + " bits");
+        }
+        return ((long) type << 60) | ((long) aux << 32) | (payload & 0xFFFFFFFFL);
+    }
+
+    public static int type(long msg){
+        return (int) (msg >>> 60);
+    }
+
+    public static int aux(long msg){
+        return (int) (msg >>> 32) & ((1 << AUX_BITS) - 1);
+    }
+
+    public static int payload(long msg){
+        return (int) msg;
+    }
+
+    /**
+     * Text form of a message, as in the original protocol e.g. "LEADER 20", aux is only shown when set
+     */
+    public static String toString(long msg){
+        int type = type(msg);
+        String name = type < TYPE_NAMES.length ? TYPE_NAMES[type] : "UNKNOWN(" + type + ")";
+        int aux = aux(msg);
+        return name + " " + payload(msg) + (aux != 0 ? " aux " + aux : "");
+    }
+}
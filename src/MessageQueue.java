@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/*
+Messages in flight for the async engine of the network (see Network), a binary min-heap on delivery
+time. Messages due at the same time come out in the order they were added.
+
+- each message is kept in a slot of parallel arrays (time, order added, sender, receiver, message),
+  the heap only moves slot numbers, freed slots are reused
+- poll() takes the earliest message, from(), to() and msg() then give what it was, as
+  EventReader does for events
+- only used by the network thread
+*/
+public class MessageQueue {
+
+    private int[] heap = new int[16]; // slots ordered by (time, seq)
+    private int size = 0;
+
+    private int[] time = new int[16];
+    private long[] seq = new long[16];
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+    private long[] msg = new long[16];
+    private int[] free = new int[16]; // slots not in use
+    private int free_count = 0;
+    private int slots = 0; // slots ever used
+    private long added = 0;
+
+    // the message taken by the last poll()
+    private int polled_from;
+    private int polled_to;
+    private long polled_msg;
+
+    /**
+     * Adds a message from node index from to node index to, delivered at the given time
+     */
+    public void add(int when, int sender, int receiver, long m){
+        int s;
+        if(free_count > 0){
+            s = free[--free_count];
+        }else{
+            if(slots == time.length){
+                int length = slots * 2;
+                time = Arrays.copyOf(time, length);
+                seq = Arrays.copyOf(seq, length);
+                from = Arrays.copyOf(from, length);
+                to = Arrays.copyOf(to, length);
+                msg = Arrays.copyOf(msg, length);
+                free = Arrays.copyOf(free, length);
+                heap = Arrays.copyOf(heap, length);
+            }
+            s = slots++;
+        }
+        time[s] = when;
+        seq[s] = added++;
+        from[s] = sender;
+        to[s] = receiver;
+        msg[s] = m;
+
+        // sift up
+        int i = size++;
+        while(i > 0){
+            int parent = (i - 1) >>> 1;
+            if(!before(s, heap[parent])){
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = s;
+    }
+
+    /**
+     * Drops every message
+     */
+    public void clear(){
+        size = 0;
+        slots = 0;
+        free_count = 0;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Delivery time of the earliest message, the queue must not be empty
+     */
+    public int time(){
+        return time[heap[0]];
+    }
+
+    /**
+     * Removes the earliest message, read it with from(), to() and msg()
+     */
+    public void poll(){
+        int s = heap[0];
+        polled_from = from[s];
+        polled_to = to[s];
+        polled_msg = msg[s];
+        free[free_count++] = s;
+
+        // sift the last slot down from the top
+        int last = heap[--size];
+        int i = 0;
+        while(true){
+            int child = 2 * i + 1;
+            if(child >= size){
+                break;
+            }
+            if(child + 1 < size && before(heap[child + 1], heap[child])){
+                child++;
+            }
+            if(!before(heap[child], last)){
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+    }
+
+    public int from(){
+        return polled_from;
+    }
+
+    public int to(){
+        return polled_to;
+    }
+
+    public long msg(){
+        return polled_msg;
+    }
+
+    private boolean before(int a, int b){
+        return time[a] < time[b] || (time[a] == time[b] && seq[a] < seq[b]);
+    }
+}
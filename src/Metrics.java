@@ -0,0 +1,128 @@
+import java.io.*;
+
+/*
+Measurements of a simulation kept in histograms (see Histogram), written as JSON lines: one object
+per report, optionally every n rounds while running and always once at the end.
+
+- messages_per_round: messages delivered in each round
+- round_ns: time a round took, the nodes, events and delivery, not the wait to pace it in real time
+- barrier_wait_ns: time the network waited for the nodes to finish the round, with the single engine
+  the time it took to step them
+- deliver_ns: time deliverMessages() took
+- process_ns: time each processMsg() took to handle a message
+- mailbox_depth: messages in the receiving mailbox after each delivery
+- election_rounds, election_ns: from the ELECT or FAIL event to the leader being elected
+- the values of a report are for the run so far, not since the report before
+*/
+public class Metrics {
+
+    // processMsg() times are recorded by node index and mailbox depths by delivery shard into one of
+    // these, locking only it, so node threads and delivery shards rarely contend
+    private static final int STRIPES = 16;
+
+    final Histogram messages_per_round = new Histogram();
+    final Histogram round_ns = new Histogram();
+    final Histogram barrier_wait_ns = new Histogram();
+    final Histogram deliver_ns = new Histogram();
+    final Histogram election_rounds = new Histogram();
+    final Histogram election_ns = new Histogram();
+    private final Histogram[] process_ns = new Histogram[STRIPES];
+    private final Histogram[] mailbox_depth = new Histogram[STRIPES]; // by delivery shard
+
+    private final Writer out;
+    private final int every;
+    private int reported = 0; // round of the last report
+
+    /**
+     * Reports are written to out, every n rounds as well as at the end if every is above 0
+     */
+    public Metrics(Writer out, int every){
+        this.out = out;
+        this.every = every;
+        for(int i = 0; i < STRIPES; i++){
+            process_ns[i] = new Histogram();
+            mailbox_depth[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records the time a node took to handle one message, called from the node threads
+     */
+    public void processed(int index, long ns){
+        Histogram h = process_ns[index & (STRIPES - 1)];
+        synchronized (h){
+            h.record(ns);
+        }
+    }
+
+    /**
+     * Records the messages in a mailbox after a delivery, called from the thread delivering for
+     * the given shard
+     */
+    public void mailboxDepth(int shard, int depth){
+        Histogram h = mailbox_depth[shard & (STRIPES - 1)];
+        synchronized (h){
+            h.record(depth);
+        }
+    }
+
+    /**
+     * Records an election finishing rounds and ns after the event that started it
+     */
+    public synchronized void elected(int rounds, long ns){
+        election_rounds.record(rounds);
+        election_ns.record(ns);
+    }
+
+    /**
+     * True if a report is due after the given round, at least every rounds after the last one as
+     * idle rounds may be skipped
+     */
+    public boolean due(int round){
+        return every > 0 && round - reported >= every;
+    }
+
+    /**
+     * Writes a report of the run up to the given round, last for the one at the end
+     */
+    public synchronized void report(int round, long messages, int leaders, boolean last) throws IOException {
+        reported = round;
+        Histogram process = merge(process_ns);
+        Histogram depth = merge(mailbox_depth);
+
+        StringBuilder s = new StringBuilder();
+        s.append("{\"round\": ").append(round)
+         .append(", \"final\": ").append(last)
+         .append(", \"messages\": ").append(messages)
+         .append(", \"leaders\": ").append(leaders);
+        field(s, "messages_per_round", messages_per_round);
+        field(s, "round_ns", round_ns);
+        field(s, "barrier_wait_ns", barrier_wait_ns);
+        field(s, "deliver_ns", deliver_ns);
+        field(s, "process_ns", process);
+        field(s, "mailbox_depth", depth);
+        field(s, "election_rounds", election_rounds);
+        field(s, "election_ns", election_ns);
+        s.append("}\n");
+
+        out.write(s.toString());
+        out.flush();
+        if(last){
+            out.close();
+        }
+    }
+
+    private static Histogram merge(Histogram[] stripes){
+        Histogram all = new Histogram();
+        for(Histogram h : stripes){
+            synchronized (h){
+                all.add(h);
+            }
+        }
+        return all;
+    }
+
+    private static void field(StringBuilder s, String name, Histogram h){
+        s.append(", \"").append(name).append("\": ").append(h.toJson());
+    }
+}
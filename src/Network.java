@@ -1,6 +1,9 @@
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /* 
@@ -12,112 +15,232 @@ Class to simulate the network. System design directions:
 	- A node can only send messages to its neighbours
 	- A node can only send one message per neighbour per round
 - When a node fails, the network must inform all the node's neighbours about the failure
+- A failure can split the live nodes into components, each forms a ring of its own and elects its
+  own leader, logged in log.txt with the number of its component
 */
 public class Network {
 
-	private static List<Node> nodes; //
-	private static HashMap<Integer, Node> node_map;
-	private static ArrayList<Node> ring; // represents the ring formed
+    /**
+     * How the nodes of a round are driven
+     *  - THREADED: one thread per node, rounds coordinated with the nodes semaphores and netSemaphore
+     *  - VIRTUAL: as THREADED with the nodes on virtual threads (Java 21 and later), which need no
+     *    stack of their own while blocked so rings of millions of nodes fit in memory
+     *  - SINGLE: the network thread calls processMsg() on every node of the ring itself
+     *  - ASYNC: no rounds, discrete events on the network thread, each message arrives after a
+     *    delay of its own (see runEvents)
+     */
+    enum Engine { THREADED, VIRTUAL, SINGLE, ASYNC }
+
+    /**
+     * What is printed to the console while the simulation runs, each level prints what the ones
+     * before it do
+     *  - QUIET: errors and the summary at the end
+     *  - EVENTS: elections started, failures, new rings and leaders elected
+     *  - MESSAGES: every message delivered
+     */
+    enum Verbosity { QUIET, EVENTS, MESSAGES }
+
+    // directions a node can send in, each node has one message slot per direction per round
+    public static final int TO_NEXT = 0; // successor in the ring
+    public static final int TO_PREV = 1; // predecessor in the ring
+    public static final int TO_NEIGHBOURS = 2; // every live neighbour in the graph
+    private static final int DIRECTIONS = 3;
+
+	private final NodeStore store = new NodeStore(); // state of all nodes by their index, Node is a view of it
+	private int[] ring = new int[16]; // represents the ring formed, node indexes in ring order
+	private int ring_size = 0;
+
+    // connected components of the live nodes, each with a ring of its own once the network is split:
+    // the rings are kept back to back in ring, component c from ring_start[c] for ring_length[c]
+    // nodes, no nodes for a component that can not form a ring (see Components)
+    private Components components;
+    private int[] ring_start = new int[4];
+    private int[] ring_length = new int[4];
+    private boolean partitioned = false; // more than one component left, leaders are logged with theirs
+    private int[] touched = new int[4]; // components whose ring the last repair changed
+    private int touched_count = 0;
     private Semaphore netSemaphore; // lock to tell network when all threads have sent messages
-    private Semaphore nodesSemaphore; // lock to tell threads when all messages of been delivered
+    // each node has its own semaphore to tell it when all messages have been delivered, a shared one let
+    // a fast node take two permits in one round and another none. Made with the threads when the
+    // simulation starts, the single engine needs neither
+    private Semaphore[] node_semaphores;
+    private Thread[] threads;
 
 	private int round;
-	private int period = 20;
-	private Map<Integer, String> msgToDeliver; // Integer for the id of the sender and String for the message
-    private File f_elect_fail;
+	private int period = 20; // real time length of a round in ms
+    private boolean virtual_clock = false; // rounds advance as soon as delivery is done when true
+    private boolean drain_all = false; // nodes process every queued message they can in a round when true
+    private boolean skip_idle = true; // jump over rounds with nothing to do before the next event when true
+    private boolean schedule_all = false; // every node of the ring runs every round when true
+
+    // nodes that run next round by ring position, a node is active while its mailbox is not empty or
+    // the algorithm says it must run (see orderRing)
+    private final ActiveSet active = new ActiveSet();
+    private int[] ring_pos; // position of each node in the ring by index, -1 if not in the ring
+    private long skipped_rounds = 0;
+    private long ring_budget = CycleFinder.DEFAULT_BUDGET_MS; // time allowed to search for a ring
+    private String ring_cache_dir = null; // directory of rings found before, null for no cache
+    private long ring_cache_limit = RingCache.DEFAULT_LIMIT_BYTES;
+    private RingCache ring_cache = null;
+    private long graph_hash = 0; // of the graph file as read, see graphHash()
+
+    // how many failures were repaired by each strategy of repairRing()
+    private int splice_repairs = 0;
+    private int local_repairs = 0;
+    private int global_repairs = 0;
+    private int walk_rings = 0; // rings along a depth first walk for components with no cycle, see ringFor()
+	private long[] msgToDeliver; // message sent this round by each node and direction, at index * DIRECTIONS + direction, Message.NONE if none
+    private int[] senders; // slots of msgToDeliver filled this round, listed by the shard of the sender
+    private long messages = 0; // messages delivered, one per receiving node
+
+    // nodes are split into shards of shard_span consecutive indexes for delivery (see deliverMessages)
+    private Shard[] shards;
+    private int shard_span;
+    private static final int SHARD_NODES = 4096; // fewest nodes worth a shard of their own
+    // most shards by default, not the number of cores as the order messages from other shards
+    // arrive in depends on the shards, so a run must not depend on the machine it runs on
+    private static final int DEFAULT_SHARDS = 16;
+    private static final int PARALLEL_MESSAGES = 1024; // fewest messages in a round worth delivering in parallel
+
+    // election run by the nodes
+    private LeaderElectionAlgorithm algorithm;
+    private String elect_file;
     boolean elect_file_finished = false;
     boolean elect_just_called = false;
     boolean first_fail = true;
 
+    // engine used to drive the nodes each round, threaded by default
+    private Engine engine = Engine.THREADED;
+
+    // async engine: messages in flight and the delay of each in rounds, drawn uniformly from
+    // latency_min .. latency_max with a seeded generator so a run can be repeated
+    private final MessageQueue in_flight = new MessageQueue();
+    private int latency_min = 1;
+    private int latency_max = 1;
+    private long seed = 1;
+    private SplittableRandom random;
+    private int[] link_time; // latest delivery on each ring link, by sender index * 2 + direction
+    private long events_handled = 0;
+
+    // several processes, each holding the nodes of one segment of the ring (see Cluster and
+    // parseSegment), null and 1 for a simulation in one process
+    private Cluster cluster = null;
+    private int processes = 1;
+    private int process = 0;
+    private int cluster_port = 0;
+    private int own_nodes; // nodes this process holds the state of, indexes 0 .. own_nodes - 1
+    private int ring_nodes; // nodes of the ring of the graph file, in all segments
+    // the nodes just before and after the segment, run by the processes either side: the last two
+    // indexes, their ids change as failures splice the ring
+    private int ghost_prev = -1;
+    private int ghost_next = -1;
+    private int[][] rows; // by index: neighbour ids of the segment and ghost nodes, see parseSegment
+    private int[] failed_ids = new int[0]; // sorted, every node failed so far in any segment
+    private final StringBuilder round_log = new StringBuilder(); // process 0: log.txt lines of the round after its leaders
+    private static final int MAX_PROCESSES = 64;
+
     // handles log.txt
     BufferedWriter out_file;
 
-    // stores the path of the new cycle discovered before replacing ring
-    Node path[];
+    // where the trace of the simulation is printed and how much of it
+    private PrintStream console = System.out;
+    private Verbosity verbosity = Verbosity.MESSAGES;
+
+    // binary trace of the messages delivered, null unless asked for with --trace
+    private TraceWriter trace = null;
+    private String trace_file = null;
+
+    // leaders elected so far with the round they were elected in and the rounds the election took,
+    // counted from the last ELECT or FAIL event before it
+    private int[] leader_ids = new int[4];
+    private int[] leader_rounds = new int[4];
+    private int[] leader_labels = new int[4]; // component of each leader, -1 while the network is whole
+    private int[] election_rounds = new int[4];
+    private int leader_count = 0;
+    private int last_event_round = 0;
+    private long last_event_time = 0; // System.nanoTime() of the last event
+    private boolean disconnected = false;
+    private int max_rounds = 0; // the simulation stops after this many rounds, 0 for no limit
+    private boolean round_limit = false;
+    private int part_b = -1; // leaders logged before Part B, -1 before the first failure
+
+    // leaders elected by the round engines this round, by ring position then node index, logged in
+    // ring order once the round's nodes have run so the threaded engines log them in the same order
+    private long[] round_leaders = new long[4];
+    private int round_leader_count = 0;
+    private long[] sender_keys = new long[16]; // scratch of orderSenders()
+
+    // checkpoints of the state between rounds (see Snapshot), written every checkpoint_every rounds
+    private String checkpoint_file = null;
+    private int checkpoint_every = 10000;
+    private String resume_file = null;
+
+    // measurements of the run, null unless asked for with setMetrics()
+    private Metrics metrics = null;
+    private String metrics_file = null;
+    private int metrics_every = 0;
+
+    // links between the nodes, indexed by node index
+    private Graph g;
 
     /**
-     * Constructor parses the graph file creating the graph in nodes_map and storing the ring
-     * specified by the file in the Array list ring.
+     * Constructor parses the graph file creating the nodes in the node store and storing the ring
+     * specified by the file in ring. The leaders are logged to log.txt.
     **/
     Network(String graph, String elect) throws IOException{
+        this(graph, elect, new BufferedWriter(new FileWriter("log.txt")));
+    }
 
-        // initialising setup
-        nodes = new ArrayList<Node>();
-        msgToDeliver = new HashMap<Integer, String>();
-        node_map = new HashMap<Integer, Node>();
-        ring = new ArrayList<Node>();
-        f_elect_fail = new File(elect);
-        out_file = new BufferedWriter(new FileWriter("log.txt"));
-
-        // setup nodes from graph here
-        Scanner s_graph = new Scanner(new File(graph));
-
-        Node prev = null;
-        while(s_graph.hasNextLine()){
-            String line = s_graph.nextLine();
-            String[] node_line = line.split(" ");
-
-            // get first node
-            int node_id = Integer.parseInt(node_line[0]);
-            Node n;
-
-            // if not already seen node create node and add to map
-            n = getNodeInMap(node_id);
-
-            // add rest of nodes as neighbours
-            Node neighbour;
-            for(int i = 1; i < node_line.length; i++){
-                neighbour = getNodeInMap(Integer.parseInt(node_line[i]));
-                n.addNeighbour(neighbour);
-            }
-
-            // add node to ring
-            ring.add(n);
+    /**
+     * As above with the leaders logged to the given writer, closed when the simulation ends, so
+     * several networks can run in one JVM
+     */
+    Network(String graph, String elect, BufferedWriter log) throws IOException{
+        this(graph, elect, log, 0, 1);
+    }
 
-            // add previous node to neighbours of current node if not already there
-            // implicit in the ring
-            if(prev != null){
-                if(!n.hasNeighbour(prev)){
-                    n.addNeighbour(prev);
-                }
+    /**
+     * As above for process p of a simulation split over the given number of processes, which only
+     * reads and holds its segment of the graph (see parseSegment)
+     */
+    Network(String graph, String elect, BufferedWriter log, int process, int processes) throws IOException{
 
-                if(!prev.hasNeighbour(n)){
-                    prev.addNeighbour(n);
-                }
-            }
+        // initialising setup
+        elect_file = elect;
+        out_file = log;
+        this.process = process;
+        this.processes = processes;
 
-            // set previous to be current
-            prev = n;
+        // setup nodes from graph here
+        if(processes > 1){
+            parseSegment(graph);
+        }else{
+            parseFile(graph);
+            own_nodes = store.size();
+            ring_nodes = ring_size;
         }
-
-        // add first node as neighbour of last node
-        Node last = ring.get(ring.size()-1);
-        Node first = ring.get(0);
-        if(!last.hasNeighbour(first)){
-            last.addNeighbour(first);
+        store.trim();
+
+        components = new Components(g, ring, ring_size);
+        ring_length[0] = ring_size;
+        linkRing();
+        if(processes > 1){
+            // the ends of the segment lead out of it
+            store.prev[ring[0]] = ghost_prev;
+            store.next[ring[ring_size - 1]] = ghost_next;
         }
 
-        // last node as neighbour of first node
-        if(!first.hasNeighbour(last)){
-            first.addNeighbour(last);
-        }
+        // one outgoing message slot per node and direction
+        msgToDeliver = new long[store.size() * DIRECTIONS];
+        senders = new int[store.size() * DIRECTIONS];
+        setShards(Math.min(DEFAULT_SHARDS, (store.size() + SHARD_NODES - 1) / SHARD_NODES));
 
-        s_graph.close();
+        setAlgorithm(new ChangRoberts());
+        orderRing();
 
         // semaphore for number waiting for all threads to send
         netSemaphore = new Semaphore(0,true);
-
-        // nodes go first
-        nodesSemaphore = new Semaphore(ring.size(),true);
-
-        // setSemaphore for nodes
-        for(Node x : ring){
-            x.setNodesSemaphore(nodesSemaphore);
-            x.setNetSemaphore(netSemaphore);
-        }
-
-        // find cycle using all nodes in the graph
-        findFullCycle();
+        graph_hash = graphHash();
 
         // DEBUG
         //printGraph();
@@ -129,12 +252,16 @@ public class Network {
     * */
     public void printGraph(){
         String str = "";
-        for(Node n : node_map.values()){
+        for(int v = 0; v < store.size(); v++){
+            if(!g.isAlive(v)){
+                continue;
+            }
+            Node n = getNodeByIndex(v);
             str =  "" + n.getNodeId() + ": ";
-            for(Node neighbour : n.myNeighbours){
+            for(Node neighbour : n.getNeighbors()){
                 str += "" + neighbour.getNodeId() + ", ";
             }
-            System.out.println(str);
+            console.println(str);
         }
     }
 
@@ -142,337 +269,2631 @@ public class Network {
      * Debug function for printing ring
      */
     public void printRing(){
-        for(Node n : ring){
-            System.out.print(n.getNodeId());
-            System.out.print(" ");
+        for(int i = 0; i < ring_size; i++){
+            console.print(store.ids[ring[i]]);
+            console.print(" ");
         }
-        System.out.print('\n');
+        console.print('\n');
     }
 
     /**
-     * Creates new node if not in map returning new node or node if already in map.
-     *      - used in parsing the graph from the graph file
-     * */
-    public Node getNodeInMap(int node_id){
-        Node n;
-        if(!node_map.containsKey(node_id)){
-            n = new Node(node_id, this, out_file);
-            node_map.put(node_id, n);
-        }else{
-            n = node_map.get(node_id);
+     * Prints the ring of component c
+     */
+    private void printRing(int c){
+        for(int i = ring_start[c]; i < ring_start[c] + ring_length[c]; i++){
+            console.print(store.ids[ring[i]]);
+            console.print(" ");
         }
-        return n;
+        console.print('\n');
     }
 
     /**
-     * Runs the simulation of the network
-     *  - Reads the elect or fail file for an event
-     *  - Starts all the Node threads running and waiting for there messages.
-     *  - Delivers message received from nodes, using function deliverMessages()
-     *  - Increments rounds
-     *  - Terminates simulation if event file has finished and no messages have been sent in a round
-     *      and election did not just start
+     * Links between the nodes of the network
      */
-	public void NetSimulator()  throws IOException, InterruptedException {
-        msgToDeliver = new HashMap<Integer, String>();
-        round = 0;
-
-        // read data into these from file
-        String elect_fail = "";
-        int elect_round = -1;
-        ArrayList<Integer> elect_nodes = new ArrayList<Integer>();
-
-        out_file.write("Part A\n");
-
-        // start all nodes
-        for(Node node : ring){
-            node.start();
-        }
-
-        // get first elect message
-        Scanner sc = new Scanner(f_elect_fail);
-        String next_line = sc.nextLine();
-        String[] line_elect = next_line.split(" ");
-
-        if(line_elect.length < 3){
-            System.out.println("ERROR: malformed ELECT line");
-        }
-
-        // change later to saving the type to variable
-
-        elect_fail = line_elect[0];
-        elect_round = Integer.parseInt(line_elect[1]);
-        for(int i = 2; i < line_elect.length; i++){
-            elect_nodes.add( Integer.parseInt(line_elect[i]));
-        }
-
-        while(true) {
-            // wait until all threads send messages
-            netSemaphore.acquire(ring.size());  // nodes have all sent messages and called netsemaphore release
-
-            // check at start of new round if anything needs to be elected
-            if(round == (elect_round-1)){
-                // initialise election for a nodes
-
-                if(elect_fail.equals("ELECT")){
-                    // start election for all nodes in the election array
-                    for(int node_id : elect_nodes){
-                        Node n = node_map.get(node_id);
-                        n.startElection();
-                        elect_just_called = true;
-                        System.out.println("Initiation of election; Round: " + elect_round + " Node: " + node_id);
-                    }
-                    // reset election node for next line to be parsed
-                    elect_nodes.clear();
-                }else if(elect_fail.equals("FAIL")){
+    public Graph getGraph(){
+        return g;
+    }
 
-                    if(first_fail){
-                        out_file.write("\nPart B\n");
-                        first_fail = false;
-                    }
+    /**
+     * Number of nodes, including failed ones and nodes only named as neighbours
+     */
+    public int size(){
+        return store.size();
+    }
 
-                    // single neighbour node contacted by failure detection system so starts election
-                    Node failed_node = node_map.get(elect_nodes.get(0));
+    /**
+     * Number of nodes in the current ring, in all the rings once the network is split
+     */
+    public int ringSize(){
+        return ring_size;
+    }
 
-                    System.out.println("Round " + (round+1) + ": Node " + failed_node.getNodeId() + " Failed");
+    /**
+     * Number of nodes in the ring node index v is in, 0 if it is in none
+     */
+    public int ringSize(int v){
+        int c = components.label(v);
+        return c < 0 ? 0 : ring_length[c];
+    }
 
-                    // remove nodes from neighbours
-                        // assuming well formed adjecent list graph were links are by directional
-                        // if node x has y as neighbour y has x as neighbour
-                    for(Node n : failed_node.myNeighbours){
-                        n.myNeighbours.remove(failed_node);
-                    }
+    /**
+     * Number of components of live nodes the failures have left, each elects a leader of its own
+     */
+    public int getComponentCount(){
+        return components.live();
+    }
 
-                    // remove node from ring (needs to happen before trying to find a new cycle)
-                    ring.remove(failed_node);
+    /**
+     * State of the nodes by index, read and written by the node views
+     */
+    NodeStore getStore(){
+        return store;
+    }
 
-                    // find new path
-                    if( findFullCycle() == false){
-                        System.out.println("Network disconnected, can't form ring: EXITING");
-                        sc.close();
-                        failed_node.interrupt(); // kill failed node thread
-                        node_map.remove(failed_node.getNodeId());
-                        break;
-                    }
+    /**
+     * Sets where the trace of the simulation is printed, System.out unless changed
+     */
+    public void setConsole(PrintStream console){
+        this.console = console;
+    }
 
-                    System.out.println("Building new network ring...");
+    public PrintStream getConsole(){
+        return console;
+    }
 
-                    // DEBUG
-                    //printGraph();
+    /**
+     * Sets how much is printed to the console, MESSAGES unless changed
+     */
+    public void setVerbosity(Verbosity verbosity){
+        this.verbosity = verbosity;
+    }
 
-                    // set new ring as path found
-                    ring = new ArrayList<Node>(Arrays.asList(path));
+    /**
+     * True if output of the given level is printed
+     */
+    public boolean isVerbose(Verbosity level){
+        return verbosity.compareTo(level) >= 0;
+    }
 
-                    System.out.print("New ring formed: ");
-                    printCyclePath();
+    /**
+     * Writes every message delivered to the given binary trace (see TraceWriter), closed when the
+     * simulation ends
+     */
+    public void setTrace(TraceWriter trace){
+        this.trace = trace;
+    }
 
-                    // get first neighbour of failed node to start an election
-                    Node neigh_n = failed_node.myNeighbours.get(0);
-                    neigh_n.startElection();
+    /**
+     * Called by a node when it is elected, records it in log.txt
+     */
+    public synchronized void leaderElected(Node leader){
+        int v = leader.getIndex();
+        if(cluster != null){
+            // logged by process 0 once it has the leaders of every process (see exchange)
+            cluster.leader(ring_pos[v], leader.getNodeId());
+            recordLeader(v);
+        }else if(engine == Engine.ASYNC){
+            writeLeader(v);
+        }else{
+            // logged with the other leaders of the round by logLeaders()
+            if(round_leader_count == round_leaders.length){
+                round_leaders = Arrays.copyOf(round_leaders, round_leader_count * 2);
+            }
+            round_leaders[round_leader_count++] = (long) ring_pos[v] << 32 | v;
+        }
+    }
 
-                    // clear node list of nodes failed
-                    elect_nodes.clear(); // nodes parse from FAIL line need cleared
-                    elect_just_called = true; // ensure that network does not exit early due to no messages
-                    failed_node.interrupt(); // kill failed node thread
-                    node_map.remove(failed_node.getNodeId());
-                }
+    /**
+     * Writes the leaders the round engines elected this round to log.txt in ring order
+     */
+    private void logLeaders(){
+        Arrays.sort(round_leaders, 0, round_leader_count);
+        for(int i = 0; i < round_leader_count; i++){
+            writeLeader((int) round_leaders[i]);
+        }
+        round_leader_count = 0;
+    }
 
-                // check line is not blank see if has next
-                if(sc.hasNextLine() && !(next_line = sc.nextLine()).isEmpty()){
-                    // parse next line
-                    // check if line is empty
-                    line_elect = next_line.split(" ");
+    private void writeLeader(int v){
+        try {
+            out_file.write(leaderLine(store.ids[v], partitioned ? components.label(v) : -1));
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+        recordLeader(v);
+    }
 
-                    // some error checking of file line
-                    if (line_elect.length < 3) {
-                        System.out.println("ERROR: malformed ELECT line: " + next_line);
-                    }
+    /**
+     * Line of log.txt for a leader, with the number of its component (from 1) once the network is
+     * split, label -1 before
+     */
+    static String leaderLine(int id, int label){
+        return label < 0 ? "Leader Node " + id + "\n" : "Leader Node " + id + " Component " + (label + 1) + "\n";
+    }
 
-                    elect_fail = line_elect[0];
-                    elect_round = Integer.parseInt(line_elect[1]);
+    /**
+     * Adds a leader to the leaders of the run with its round and how long its election took
+     */
+    private void recordLeader(int v){
+        if(leader_count == leader_ids.length){
+            leader_ids = Arrays.copyOf(leader_ids, leader_count * 2);
+            leader_rounds = Arrays.copyOf(leader_rounds, leader_count * 2);
+            leader_labels = Arrays.copyOf(leader_labels, leader_count * 2);
+            election_rounds = Arrays.copyOf(election_rounds, leader_count * 2);
+        }
+        leader_ids[leader_count] = store.ids[v];
+        leader_rounds[leader_count] = round;
+        leader_labels[leader_count] = partitioned ? components.label(v) : -1;
+        election_rounds[leader_count] = round - last_event_round;
+        leader_count++;
+        if(metrics != null){
+            metrics.elected(round - last_event_round, System.nanoTime() - last_event_time);
+        }
+    }
 
-                    // place all node to elect in that round in an array
-                    for (int i = 2; i < line_elect.length; i++) {
-                        elect_nodes.add(Integer.parseInt(line_elect[i]));
-                    }
+    /**
+     * Number of leaders elected so far, an election after every event
+     */
+    public int getLeaderCount(){
+        return leader_count;
+    }
 
-                }else{
-                    // if no next line and no messages to send then terminate as file has finished
-                    // check messages
-                    elect_file_finished = true;
-                    sc.close();
-                }
-            }
+    /**
+     * Id of the i-th leader elected
+     */
+    public int getLeader(int i){
+        return leader_ids[i];
+    }
 
-            // elect just called stops termination problem with single ELECT message in file placed in
-            if (msgToDeliver.isEmpty() && elect_file_finished == true && (elect_just_called == false)) {
-                break;
-            }
+    /**
+     * Round the i-th leader was elected in
+     */
+    public int getLeaderRound(int i){
+        return leader_rounds[i];
+    }
 
-            deliverMessages();
+    /**
+     * Rounds from the last event before the i-th leader was elected to its election
+     */
+    public int getElectionRounds(int i){
+        return election_rounds[i];
+    }
 
-            // time to deliver messages
-            Thread.sleep(period);
+    /**
+     * True if the simulation stopped because the last node of the ring failed
+     */
+    public boolean isDisconnected(){
+        return disconnected;
+    }
 
-            // Start of new round
-            round++;
+    /**
+     * Stops the simulation after the given number of rounds even if messages are still being sent,
+     * 0 for no limit
+     */
+    public void setMaxRounds(int max_rounds){
+        this.max_rounds = max_rounds;
+    }
 
-            elect_just_called = false; // reset if elect just called
+    /**
+     * True if the simulation stopped at the round limit
+     */
+    public boolean hitRoundLimit(){
+        return round_limit;
+    }
 
-            // release after delivering messages,
-            nodesSemaphore.release(ring.size()); // ring size change on fail
-        }
+    /**
+     * Records measurements of the run (see Metrics), reported to the given writer at the end and
+     * every n rounds if every is above 0
+     */
+    public void setMetrics(Writer out, int every){
+        metrics = new Metrics(out, every);
+    }
 
-        //break wait for all messages to be delivered
-        System.out.println("Main thread terminated");
+    /**
+     * Measurements of the run, null if not recorded
+     */
+    public Metrics getMetrics(){
+        return metrics;
+    }
 
-        // shutdown all threads
-        for (Node n : ring){
-            n.interrupt();
-        }
+    /**
+     * Sets the election algorithm run by the nodes, Chang-Roberts unless changed
+     */
+    public void setAlgorithm(LeaderElectionAlgorithm algorithm){
+        this.algorithm = algorithm;
+        algorithm.init(this);
+    }
 
-        out_file.write("simulation completed\n");
-        out_file.close();
+    public LeaderElectionAlgorithm getAlgorithm(){
+        return algorithm;
     }
 
     /**
-     * At each round, the network collects all the messages that the nodes want to send to their neighbours.
-     * Implement this logic here.
+     * Rounds simulated so far
      */
-    public synchronized void addMessage(int id, String m) {
-        msgToDeliver.put(id,m);
-	}
+    public int getRound(){
+        return round;
+    }
 
     /**
-     * At each round, the network delivers all the messages that it has collected from the nodes.
-     * Ensures that a node can send only to its neighbours in the ring, one message per round per neighbour
-     * as we are using a hash map.
-     *
-     *  Loops over node IDs in msgToDeliver hash map sending message to ring neighbour of the Node id.
+     * Messages delivered so far, a message sent to all neighbours counts once per neighbour
      */
-    public synchronized void deliverMessages() {
+    public long getMessageCount(){
+        return messages;
+    }
 
-        // send to nodes msg to it's neighbour in the ring
-            // enforces sending only to neighbour
+    /**
+     * Sets the engine used to run the nodes, must be called before NetSimulator()
+     */
+    public void setEngine(Engine engine){
+        this.engine = engine;
+    }
 
-        // only receive one message per node
-        for( int node_id : msgToDeliver.keySet()){
+    /**
+     * Sets the delay of each message with the async engine, drawn uniformly from min to max rounds
+     */
+    public void setLatency(int min, int max){
+        this.latency_min = min;
+        this.latency_max = max;
+    }
 
-            // get node sending message
-            Node sending_n = node_map.get(node_id);
+    /**
+     * Sets the clock of the simulation, when virtual there is no waiting between rounds otherwise
+     * each round is paced to last period ms
+     */
+    public void setClock(boolean virtual_clock, int period){
+        this.virtual_clock = virtual_clock;
+        this.period = period;
+    }
 
-            // find node in ring get index
-            int sending_node_index = ring.indexOf(sending_n);
+    /**
+     * Sets whether nodes handle one message per round or drain their mailbox (see Node.step())
+     */
+    public void setDrainAll(boolean drain_all){
+        this.drain_all = drain_all;
+    }
 
-            // get neighbour of node
-            Node receiving_node = ring.get( (sending_node_index + 1) % ring.size() );
+    public boolean isDrainAll(){
+        return drain_all;
+    }
 
-            // send message to neighbour, add to incomingMsg
-            String msg_str = msgToDeliver.get(node_id);
-            System.out.println("Round " +  round + ": Message from Node " + node_id + " to Node " + receiving_node.getNodeId() + " contents: " + msg_str);
-            receiving_node.receiveMsg(msg_str);
-        }
-        msgToDeliver.clear(); // clear list of messages after sending them
-	}
+    /**
+     * Sets whether rounds with no messages in flight before the next event are skipped rather than
+     * stepped through, the round numbers are the same either way
+     */
+    public void setSkipIdle(boolean skip_idle){
+        this.skip_idle = skip_idle;
+    }
 
     /**
-     * Method to inform the neighbours of a failed node about the event.
-     * */
-	public synchronized void informNodeFailure(int id) {
+     * Sets whether every node of the ring runs every round or only the nodes with something to do,
+     * the simulation is the same either way
+     */
+    public void setScheduleAll(boolean schedule_all){
+        this.schedule_all = schedule_all;
+    }
 
-	}
+    /**
+     * Idle rounds skipped in the last simulation
+     */
+    public long getSkippedRounds(){
+        return skipped_rounds;
+    }
 
     /**
-     * Code to parse the file can be added here. Notice that the method's descriptor must be defined.
+     * Sets the time in ms the search for a new ring after a FAIL may take before giving up
      */
-    private void parseFile(String fileName) throws IOException {
+    public void setRingBudget(long ms){
+        this.ring_budget = ms;
+    }
 
+    /**
+     * Prints the mailbox queue depth statistics of the nodes
+     *  - largest high water mark and the node it happened at, mean high water mark and how many
+     *    mailboxes had to grow past their capacity
+     */
+    public void printMailboxStats(){
+        printMailboxStats(mailboxStats());
     }
 
-    // ========================== FINDING CYCLES ========================
-    boolean isSafeToAdd(Node v, Node path[], int pos) {
-        for(int i = 0; i < pos; i++){
-            if(path[i].getNodeId() == v.getNodeId()){
-                return false;
-            }
+    private void printMailboxStats(long[] stats){
+        if(stats[0] > 0) {
+            console.format("Mailbox high water mark: max %d (Node %d), mean %.2f, %d mailboxes grown\n",
+                    stats[2], stats[1], (double) stats[3] / stats[0], stats[4]);
         }
-        return true;
     }
 
     /**
-     * recursive descent down the graph with backtracking used find cycle
-     * */
-    boolean cycleUtil(Node path[], int pos) {
-        // base case if last node is path has first node as neighbour return true
-        if(pos == path.length){
-            if(path[path.length-1].hasNeighbour(path[0])){
-                return true;
-            }else{
-                return false;
+     * Number of nodes of this process, the id of the first with the largest mailbox high water mark,
+     * that high water mark, the sum of all high water marks and the number of mailboxes grown
+     */
+    private long[] mailboxStats(){
+        int deepest = -1;
+        long total = 0;
+        int grown = 0;
+        for(int v = 0; v < own_nodes; v++){
+            if(deepest < 0 || store.highWaterMark(v) > store.highWaterMark(deepest)){
+                deepest = v;
             }
-        }
-
-        // search over all neighbours to test for a cycle
-        for(Node n : path[pos-1].myNeighbours){
-            // if not already in list add
-            if(isSafeToAdd(n, path, pos)){
-                path[pos] = n;
-                if(cycleUtil(path, pos+1) == true){
-                    return true;
-                }
-                path[pos] = null; // remove node from path as it failed move on to next neighbour
+            total += store.highWaterMark(v);
+            if(store.grown(v)){
+                grown++;
             }
         }
-        return false;
+        if(deepest < 0){
+            return new long[]{0, 0, 0, 0, 0};
+        }
+        return new long[]{own_nodes, store.ids[deepest], store.highWaterMark(deepest), total, grown};
     }
 
     /**
-     * Function tries to find a hamiltonian cycle in the graph
+     * Returns a view of the node with the given dense index
      */
-    boolean findFullCycle(){
-        // if malformed file not all nodes in graph could be in ring but we should be given this
-        int V = ring.size();
-        path = new Node[ring.size()];
-
-        for (int i = 0; i < path.length; i++) {
-            path[i] = null;
-        }
+    public Node getNodeByIndex(int index){
+        return new Node(this, index);
+    }
 
-        path[0] = ring.get(0);
+    /**
+     * Creates new node if not in map returning new node or node if already in map.
+     *      - used in parsing the graph from the graph file
+     * */
+    public Node getNodeInMap(int node_id){
+        return new Node(this, indexInMap(node_id));
+    }
 
-        return cycleUtil(path, 1);
+    private int indexInMap(int node_id){
+        int index = store.indexOf(node_id);
+        return index >= 0 ? index : store.add(node_id);
     }
 
     /**
-     * Prints cycle found in graph
-     * */
-    private void printCyclePath(){
-        for(Node n : path ){
-            if(n != null) {
-                System.out.print(n.getNodeId() + " ");
-            }else{
-                System.out.print("null ");
-            }
-        }
-        System.out.print("\n");
+     * Index of the live node with the given id, -1 if there is none or it failed
+     */
+    private int liveIndex(int node_id){
+        int index = store.indexOf(node_id);
+        return index >= 0 && g.isAlive(index) ? index : -1;
     }
 
-    // ========================== END OF CYCLE CODE ========================
+    /**
+     * Called by a node thread to wait for the network to let it run its next round
+     */
+    void awaitRound(int index) throws InterruptedException {
+        node_semaphores[index].acquire();
+    }
 
-    /*
-    *  Checks args and creates network the runs the simulation
-    * */
-    public static void main(String[] args) throws IOException, InterruptedException {
+    /**
+     * Called by a node thread once it has sent the messages of its round
+     */
+    void roundDone(){
+        netSemaphore.release();
+    }
 
-        if(args.length < 2){
-            System.out.println("Please provide files!");
-        }else{
-            //System.out.format("arg[0]: %s, arg[1]: %s\n", args[0], args[1]);
+    /**
+     * Stops the thread of a node, if the engine gave it one
+     */
+    private void stopThread(int index){
+        if(threads != null && index < threads.length && threads[index] != null){
+            threads[index].interrupt();
+            threads[index] = null;
         }
+    }
 
-        // get args
-        String ds_graph = args[0];
-        String ds_elect_fail = args[1];
+    /**
+     * Runs the simulation of the network
+     *  - Reads the elect or fail file for an event
+     *  - Starts all the Node threads running and waiting for there messages.
+     *  - Delivers message received from nodes, using function deliverMessages()
+     *  - Increments rounds
+     *  - Terminates simulation if event file has finished and no messages have been sent in a round
+     *      and election did not just start
+     *  - With the async engine the messages are events in time instead (see runEvents)
+     */
+	public void NetSimulator()  throws IOException, InterruptedException {
+        if(engine == Engine.ASYNC && algorithm.readsWholeMailbox()){
+            console.println("ERROR: " + algorithm.name() + " counts rounds, the async engine has none");
+            out_file.close();
+            return;
+        }
+        if(ring_nodes > algorithm.maxRingSize()){
+            console.println("ERROR: " + algorithm.name() + " runs on rings of at most " + algorithm.maxRingSize() + " nodes");
+            out_file.close();
+            return;
+        }
+        if(engine == Engine.ASYNC && processes > 1){
+            console.println("ERROR: the async engine runs in one process");
+            out_file.close();
+            return;
+        }
+        if(algorithm.sendsToNeighbours() && processes > 1){
+            console.println("ERROR: " + algorithm.name() + " sends over the whole graph, a process only holds its segment of it");
+            out_file.close();
+            return;
+        }
+        if((checkpoint_file != null || resume_file != null) && (engine == Engine.ASYNC || processes > 1)){
+            console.println("ERROR: checkpoints need a round engine in one process");
+            out_file.close();
+            return;
+        }
+        Arrays.fill(msgToDeliver, Message.NONE);
+        setShards(shards.length);
+        round = 0;
+        messages = 0;
+        skipped_rounds = 0;
+        events_handled = 0;
+        long start_time = System.nanoTime();
+
+        String suffix = process > 0 ? "." + process : ""; // each process writes files of its own
+        if(metrics == null && metrics_file != null){
+            setMetrics(new BufferedWriter(new FileWriter(metrics_file + suffix)), metrics_every);
+        }
+        if(trace == null && trace_file != null){
+            setTrace(new TraceWriter(trace_file + suffix));
+        }
+        if(ring_cache == null && ring_cache_dir != null){
+            try{
+                ring_cache = new RingCache(ring_cache_dir, ring_cache_limit);
+            }catch(IOException e){
+                console.println("ERROR: no ring cache in " + ring_cache_dir + ": " + e.getMessage());
+                ring_cache_dir = null;
+            }
+        }
+
+        out_file.write("Part A\n");
+        orderRing();
+
+        // get first event, the rest are read one at a time as they happen, or go on from a checkpoint
+        EventReader events = new EventReader(elect_file);
+        if(resume_file == null){
+            readEvent(events);
+        }else{
+            try{
+                resume(events);
+            }catch(IOException e){
+                console.println("ERROR: could not resume from " + resume_file + ": " + e.getMessage());
+                events.close();
+                out_file.close();
+                return;
+            }
+        }
+
+        if(engine == Engine.ASYNC){
+            runEvents(events);
+        }else{
+            runRounds(events);
+        }
+
+        // with several processes process 0 reports for all of them, the others report nothing
+        long[] mailbox_stats = mailboxStats();
+        boolean report = true;
+        if(cluster != null){
+            mailbox_stats = finishCluster(mailbox_stats);
+            report = mailbox_stats != null;
+        }
+        if(report){
+            //break wait for all messages to be delivered
+            console.println("Main thread terminated");
+
+            // throughput of the simulation
+            long elapsed = System.nanoTime() - start_time;
+            console.format("Simulated %d rounds in %.3f s (%.1f rounds/s)\n", round, elapsed / 1e9,
+                    round / Math.max(elapsed / 1e9, 1e-9));
+            if(engine == Engine.ASYNC){
+                console.format("Handled %d message events (%.1f events/s)\n", events_handled,
+                        events_handled / Math.max(elapsed / 1e9, 1e-9));
+            }
+            if(skipped_rounds > 0){
+                console.format("Skipped %d idle rounds\n", skipped_rounds);
+            }
+            console.format("Election algorithm %s: %d messages\n", algorithm.name(), messages);
+            printMailboxStats(mailbox_stats);
+            console.format("Ring repairs: %d splice, %d local, %d global\n", splice_repairs, local_repairs, global_repairs);
+            if(walk_rings > 0){
+                console.format("Rings along a depth first walk: %d\n", walk_rings);
+            }
+        }
+        if(metrics != null){
+            metrics.report(round, messages, leader_count, true);
+        }
+        if(trace != null){
+            trace.close();
+            if(report){
+                console.format("Trace of %d messages written\n", trace.records());
+            }
+        }
+        if(ring_cache != null && report){
+            console.format("Ring cache: %d hits, %d misses\n", ring_cache.hits(), ring_cache.misses());
+        }
+
+        // shutdown all threads
+        for (int i = 0; i < store.size(); i++){
+            stopThread(i);
+        }
+        threads = null;
+        node_semaphores = null;
+
+        out_file.write("simulation completed\n");
+        out_file.close();
+    }
+
+    /**
+     * Rounds of the round engines until the events are done and no messages are left, or the
+     * round limit
+     */
+    private void runRounds(EventReader events) throws IOException, InterruptedException {
+        long next_round_time = System.nanoTime(); // when the next round should start with the real clock
+        long next_checkpoint = round + checkpoint_every;
+
+        // start all nodes, single engine runs them from this thread instead
+        if(engine != Engine.SINGLE) {
+            threads = new Thread[store.size()];
+            node_semaphores = new Semaphore[store.size()];
+            for (int v = 0; v < store.size(); v++) {
+                if(components.label(v) < 0){
+                    continue; // not in the ring or failed
+                }
+                node_semaphores[v] = new Semaphore(0); // the network lets the nodes with something to do go first
+                threads[v] = getNodeByIndex(v).newThread(engine == Engine.VIRTUAL);
+                threads[v].start();
+            }
+        }
+
+        while(true) {
+            long round_start = metrics != null ? System.nanoTime() : 0;
+            // only the active nodes run, the others would find an empty mailbox and do nothing
+            int running = active.size();
+            if(engine != Engine.SINGLE) {
+                for(int i = 0; i < running; i++){
+                    node_semaphores[ring[active.position(i)]].release();
+                }
+                // wait until all threads send messages
+                netSemaphore.acquire(running);  // nodes have all sent messages and called netsemaphore release
+                orderSenders();
+            }else{
+                // same round as the threads but driven from here, in ring order so the messages of
+                // a round are delivered in the same order every run
+                for(int i = 0; i < running; i++){
+                    getNodeByIndex(ring[active.position(i)]).step();
+                }
+            }
+            active.removeIf(p -> idle(ring[p]));
+            logLeaders();
+            if(metrics != null){
+                metrics.barrier_wait_ns.record(System.nanoTime() - round_start);
+            }
+
+            // check at start of new round if anything needs to be elected
+            if(!elect_file_finished && round == (events.round()-1)){
+                if(!handleEvent(events)){
+                    break;
+                }
+            }
+
+            // elect just called stops termination problem with single ELECT message in file placed in
+            boolean idle = pendingMessages() == 0 && !algorithm.waiting() && !messagesWaiting();
+            if (cluster == null && idle && elect_file_finished == true && (elect_just_called == false)) {
+                break;
+            }
+
+            long delivered = messages;
+            long deliver_start = metrics != null ? System.nanoTime() : 0;
+            if(cluster == null){
+                deliverMessages();
+            }else{
+                // the other processes have to agree, nothing is in flight anywhere if all were idle
+                idle = exchange(idle);
+                if(idle && elect_file_finished && !elect_just_called){
+                    break;
+                }
+            }
+            if(metrics != null){
+                long deliver_end = System.nanoTime();
+                metrics.deliver_ns.record(deliver_end - deliver_start);
+                metrics.round_ns.record(deliver_end - round_start);
+                metrics.messages_per_round.record(messages - delivered);
+            }
+
+            // time to deliver messages, wait out the rest of the round unless clock is virtual
+            if(!virtual_clock){
+                next_round_time += period * 1000000L;
+                long wait = next_round_time - System.nanoTime();
+                if(wait > 0){
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+
+            // Start of new round
+            round++;
+
+            elect_just_called = false; // reset if elect just called
+
+            // nothing in flight and nothing to do before the next event, jump to the round before it
+            // as if the nodes had stepped through the idle rounds in between
+            boolean quiet = cluster != null ? idle : messages == delivered && !algorithm.waiting() && !messagesWaiting();
+            if(skip_idle && !elect_file_finished && round < events.round() - 1 && quiet){
+                int target = events.round() - 1;
+                if(max_rounds > 0){
+                    target = Math.min(target, max_rounds);
+                }
+                skipped_rounds += target - round;
+                round = target;
+                next_round_time = System.nanoTime();
+            }
+
+            if(metrics != null && metrics.due(round)){
+                metrics.report(round, messages, leader_count, false);
+            }
+
+            if(max_rounds > 0 && round >= max_rounds){
+                if(process == 0){
+                    console.println("Round limit " + max_rounds + " reached: STOPPING");
+                }
+                round_limit = true;
+                break;
+            }
+
+            if(checkpoint_file != null && round >= next_checkpoint){
+                writeCheckpoint(events);
+                next_checkpoint = round + checkpoint_every;
+            }
+        }
+    }
+
+    /**
+     * Puts the senders of each shard in ring order, by ring position then direction as the single
+     * engine lists them, so the threaded engines deliver in the same order every run. Called once the
+     * nodes have run, before an event can change the ring
+     */
+    private void orderSenders(){
+        for(Shard shard : shards){
+            int n = shard.count.get();
+            if(sender_keys.length < n){
+                sender_keys = new long[Math.max(n, sender_keys.length * 2)];
+            }
+            boolean sorted = true;
+            for(int i = 0; i < n; i++){
+                int slot = senders[shard.base + i];
+                sender_keys[i] = (long) ring_pos[slot / DIRECTIONS] * DIRECTIONS + slot % DIRECTIONS;
+                sorted &= i == 0 || sender_keys[i - 1] < sender_keys[i];
+            }
+            if(sorted){
+                continue;
+            }
+            Arrays.sort(sender_keys, 0, n);
+            for(int i = 0; i < n; i++){
+                int p = (int) (sender_keys[i] / DIRECTIONS);
+                senders[shard.base + i] = ring[p] * DIRECTIONS + (int) (sender_keys[i] % DIRECTIONS);
+            }
+        }
+    }
+
+    /**
+     * Handles the current event of the event file in the current round and reads the next one
+     *  - ELECT: the nodes of the event start an election
+     *  - FAIL: the node fails, the ring is repaired around it and its first live neighbour starts
+     *    an election. If the failure split the network each component gets a ring of its own and
+     *    the first live neighbour in each starts an election there
+     * Returns false if the failure left no live node of the ring, the simulation then ends.
+     */
+    private boolean handleEvent(EventReader events) throws IOException {
+        // initialise election for a nodes
+        last_event_round = round;
+        last_event_time = System.nanoTime();
+        if(cluster != null){
+            return clusterEvent(events);
+        }
+
+        if(events.type() == EventReader.ELECT){
+            // start election for all nodes of the event
+            for(int i = 0; i < events.nodeCount(); i++){
+                int node_id = events.node(i);
+                int v = liveIndex(node_id);
+                if(v < 0){
+                    console.println("ERROR: " + events.where() + ": no live node " + node_id + " to start an election");
+                    continue;
+                }
+                if(ringSize(v) == 0){
+                    console.println("ERROR: " + events.where() + ": node " + node_id + " is in a component without a ring");
+                    continue;
+                }
+                startElection(v);
+                elect_just_called = true;
+                if(isVerbose(Verbosity.EVENTS)){
+                    console.println("Initiation of election; Round: " + events.round() + " Node: " + node_id);
+                }
+            }
+        }else if(liveIndex(events.node(0)) < 0){
+            console.println("ERROR: " + events.where() + ": no live node " + events.node(0) + " to fail");
+        }else{
+
+            if(first_fail){
+                out_file.write("\nPart B\n");
+                first_fail = false;
+                part_b = leader_count;
+            }
+
+            // single neighbour node contacted by failure detection system so starts election
+            int failed_node = liveIndex(events.node(0));
+
+            if(isVerbose(Verbosity.EVENTS)){
+                console.println("Round " + (round+1) + ": Node " + store.ids[failed_node] + " Failed");
+            }
+
+            // remove nodes from neighbours, links to a failed node are ignored by the graph
+                // assuming well formed adjecent list graph were links are by directional
+                // if node x has y as neighbour y has x as neighbour
+            g.fail(failed_node);
+            algorithm.leave(getNodeByIndex(failed_node));
+
+            // remove node from ring and close the gap (see repairRing)
+            int live = components.live();
+            boolean repaired = repairRing(failed_node);
+            orderRing();
+            if(repaired == false){
+                console.println("No live nodes left to form a ring: EXITING");
+                disconnected = true;
+                events.close();
+                stopThread(failed_node); // kill failed node thread
+                return false;
+            }
+            partitioned = components.live() > 1;
+
+            if(isVerbose(Verbosity.EVENTS)){
+                if(components.live() > live){
+                    console.println("Network partitioned into " + components.live() + " components");
+                }
+                console.println("Building new network ring...");
+
+                // DEBUG
+                //printGraph();
+
+                for(int i = 0; i < touched_count; i++){
+                    int c = touched[i];
+                    if(ring_length[c] > 0){
+                        console.print(partitioned ? "New ring formed in component " + (c + 1) + ": " : "New ring formed: ");
+                        printRing(c);
+                    }
+                }
+            }
+
+            // first neighbour of failed node still alive in each component with a ring starts an election
+            for(int i = 0; i < g.degree(failed_node); i++){
+                int w = g.neighbour(failed_node, i);
+                if(g.isAlive(w) && ringSize(w) > 0 && !electionStarted(w, failed_node, i)){
+                    startElection(w);
+                }
+            }
+
+            elect_just_called = true; // ensure that network does not exit early due to no messages
+            stopThread(failed_node); // kill failed node thread
+        }
+
+        // move on to the next event, if none the simulation ends once no messages are sent
+        readEvent(events);
+        return true;
+    }
+
+    /**
+     * True if a live neighbour of the failed node before the i-th is in the same component as
+     * node w, that neighbour has already started the election of the component
+     */
+    private boolean electionStarted(int w, int failed_node, int i){
+        for(int j = 0; j < i; j++){
+            int u = g.neighbour(failed_node, j);
+            if(g.isAlive(u) && components.label(u) == components.label(w)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts an election at node v, handled next round by the round engines and straight away by
+     * the event engine
+     */
+    private void startElection(int v){
+        Node n = getNodeByIndex(v);
+        n.startElection();
+        if(engine == Engine.ASYNC){
+            n.processMsg();
+        }else{
+            activate(v);
+        }
+    }
+
+    /**
+     * Reads the next event of the event file, marks the file finished and closes it when there are
+     * no more events. A malformed line is reported and ends the events, the elections already
+     * running are left to finish.
+     */
+    private void readEvent(EventReader events) throws IOException {
+        try{
+            if(events.next()){
+                return;
+            }
+        }catch(IOException e){
+            console.println("ERROR: " + e.getMessage() + ", ignoring the rest of the events");
+        }
+        elect_file_finished = true;
+        events.close();
+    }
+
+    /**
+     * True if a node of the ring still has messages in its mailbox, a node that got two messages in
+     * one round only handles one of them and may send nothing in that round
+     *  - only active nodes can have messages, so only they are looked at
+     */
+    private boolean messagesWaiting(){
+        int k = active.size();
+        for(int i = 0; i < k; i++){
+            if(!store.isEmpty(ring[active.position(i)])){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the node has nothing to do next round: no messages and the algorithm does not need it
+     */
+    private boolean idle(int v){
+        return !schedule_all && store.isEmpty(v) && !algorithm.active(getNodeByIndex(v));
+    }
+
+    /**
+     * Makes a node of the ring run next round
+     */
+    private void activate(int v){
+        int p = ring_pos[v];
+        if(p >= 0){
+            active.add(p);
+        }
+    }
+
+    /**
+     * Numbers the nodes by their position in the ring and marks the ones that are not idle active,
+     * called when the simulation starts and whenever the ring changes
+     */
+    private void orderRing(){
+        if(ring_pos == null){
+            ring_pos = new int[store.size()];
+        }
+        Arrays.fill(ring_pos, -1);
+        active.clear();
+        for(int p = 0; p < ring_size; p++){
+            int v = ring[p];
+            ring_pos[v] = p;
+            if(!idle(v)){
+                active.add(p);
+            }
+        }
+    }
+
+    /**
+     * At each round, the network collects all the messages that the nodes want to send to their neighbours.
+     * Implement this logic here.
+     */
+    public void addMessage(int index, long m) {
+        addMessage(index, TO_NEXT, m);
+    }
+
+    /**
+     * Collects a message a node sends in the given direction (TO_NEXT, TO_PREV or TO_NEIGHBOURS)
+     *  - not synchronized: only the node's own thread writes its slots, the slot is listed in the
+     *    senders of the node's shard with an atomic increment of the shard's count
+     */
+    public void addMessage(int index, int direction, long m) {
+        if(engine == Engine.ASYNC){
+            schedule(index, direction, m);
+            return;
+        }
+        // later message of the same round replaces the earlier one, only one per node and direction
+        int slot = index * DIRECTIONS + direction;
+        if(msgToDeliver[slot] == Message.NONE){
+            Shard shard = shards[index / shard_span];
+            senders[shard.base + shard.count.getAndIncrement()] = slot;
+        }
+        msgToDeliver[slot] = m;
+	}
+
+    /**
+     * At each round, the network delivers all the messages that it has collected from the nodes.
+     * Ensures that a node can send only to its neighbours, one message per round per neighbour
+     * as each node has a single slot per direction in msgToDeliver.
+     *
+     *  Each shard sends the messages of its nodes to the ring successor or predecessor of the node,
+     *  or to all its live neighbours in the graph. Receivers in the shard get them straight away,
+     *  messages for other shards are posted to them and handed over once every shard is done, so a
+     *  mailbox is only ever written by the thread delivering for its own shard. The shards run in
+     *  parallel when there are enough messages and nothing has to be printed or traced in order.
+     */
+    public void deliverMessages() {
+        int pending = pendingMessages();
+        if(shards.length > 1 && pending >= PARALLEL_MESSAGES && verbosity != Verbosity.MESSAGES && trace == null
+                && cluster == null){
+            ForkJoinPool.commonPool().invoke(new Deliver(0, shards.length, false));
+            ForkJoinPool.commonPool().invoke(new Deliver(0, shards.length, true));
+        }else{
+            for(Shard shard : shards){
+                shard.send();
+            }
+            if(shards.length > 1){
+                for(Shard shard : shards){
+                    shard.receive();
+                }
+            }
+        }
+        collectShards();
+	}
+
+    /**
+     * Counts the messages the shards delivered and makes the nodes they woke active
+     */
+    private void collectShards(){
+        for(Shard shard : shards){
+            messages += shard.delivered;
+            shard.delivered = 0;
+            for(int i = 0; i < shard.woken_count; i++){
+                activate(shard.woken[i]);
+            }
+            shard.woken_count = 0;
+        }
+    }
+
+    // ========================== CHECKPOINTS ========================
+
+    /**
+     * Writes the state of the simulation at the start of the round to the checkpoint file (see
+     * Snapshot): the shards, counters, the event file position, the leaders so far, the ring and the failed
+     * nodes, then the node store and the election algorithm. Nothing is in flight between rounds
+     * and the active nodes are the ones that are not idle, so neither is written
+     */
+    private void writeCheckpoint(EventReader events) throws IOException {
+        DataOutputStream out = Snapshot.create(checkpoint_file);
+        out.writeInt(store.size());
+        out.writeLong(graph_hash);
+        out.writeUTF(algorithm.name());
+        out.writeInt(shards.length);
+
+        out.writeInt(round);
+        out.writeLong(messages);
+        out.writeLong(skipped_rounds);
+        out.writeInt(splice_repairs);
+        out.writeInt(local_repairs);
+        out.writeInt(global_repairs);
+        out.writeInt(walk_rings);
+        out.writeBoolean(elect_file_finished);
+        out.writeLong(events.count());
+        out.writeInt(last_event_round);
+        out.writeBoolean(first_fail);
+        out.writeInt(part_b);
+
+        out.writeInt(leader_count);
+        Snapshot.writeInts(out, leader_ids, leader_count);
+        Snapshot.writeInts(out, leader_rounds, leader_count);
+        Snapshot.writeInts(out, election_rounds, leader_count);
+        Snapshot.writeInts(out, leader_labels, leader_count);
+
+        out.writeInt(ring_size);
+        Snapshot.writeDeltas(out, ring, ring_size);
+        components.write(out);
+        Snapshot.writeInts(out, ring_length, components.count());
+        int failed = 0;
+        for(int v = 0; v < store.size(); v++){
+            if(!g.isAlive(v)){
+                failed++;
+            }
+        }
+        out.writeInt(failed);
+        for(int v = 0; v < store.size(); v++){
+            if(!g.isAlive(v)){
+                out.writeInt(v);
+            }
+        }
+
+        store.write(out);
+        algorithm.save(out);
+        Snapshot.commit(out, checkpoint_file);
+    }
+
+    /**
+     * Restores the state a checkpoint was written with, in a network built from the same graph file
+     * with the same election algorithm. log.txt is written again up to the checkpoint and the events
+     * already handled are read past, so the run goes on as the one that wrote it
+     */
+    private void resume(EventReader events) throws IOException {
+        long events_read;
+        try(DataInputStream in = Snapshot.open(resume_file)){
+            if(in.readInt() != store.size() || in.readLong() != graph_hash){
+                throw new IOException("the checkpoint is of another graph");
+            }
+            String name = in.readUTF();
+            if(!name.equals(algorithm.name())){
+                throw new IOException("the checkpoint is of an election by " + name + ", not " + algorithm.name());
+            }
+            setShards(in.readInt()); // messages between shards arrive in shard order
+
+            round = in.readInt();
+            messages = in.readLong();
+            skipped_rounds = in.readLong();
+            splice_repairs = in.readInt();
+            local_repairs = in.readInt();
+            global_repairs = in.readInt();
+            walk_rings = in.readInt();
+            elect_file_finished = in.readBoolean();
+            events_read = in.readLong();
+            last_event_round = in.readInt();
+            first_fail = in.readBoolean();
+            part_b = in.readInt();
+
+            leader_count = in.readInt();
+            leader_ids = new int[Math.max(leader_count, 4)];
+            leader_rounds = new int[leader_ids.length];
+            election_rounds = new int[leader_ids.length];
+            leader_labels = new int[leader_ids.length];
+            Snapshot.readInts(in, leader_ids, leader_count);
+            Snapshot.readInts(in, leader_rounds, leader_count);
+            Snapshot.readInts(in, election_rounds, leader_count);
+            Snapshot.readInts(in, leader_labels, leader_count);
+            for(int i = 0; i < leader_count; i++){
+                if(i == part_b){
+                    out_file.write("\nPart B\n");
+                }
+                out_file.write(leaderLine(leader_ids[i], leader_labels[i]));
+            }
+            if(part_b == leader_count){
+                out_file.write("\nPart B\n");
+            }
+
+            ring_size = in.readInt();
+            Snapshot.readDeltas(in, ring, ring_size);
+            components.read(in);
+            ring_length = new int[Math.max(components.count(), 4)];
+            ring_start = new int[ring_length.length];
+            Snapshot.readInts(in, ring_length, components.count());
+            for(int c = 1; c < components.count(); c++){
+                ring_start[c] = ring_start[c - 1] + ring_length[c - 1];
+            }
+            partitioned = components.live() > 1;
+            Arrays.fill(store.next, -1);
+            Arrays.fill(store.prev, -1);
+            linkRing();
+            for(int i = in.readInt(); i > 0; i--){
+                g.fail(in.readInt());
+            }
+
+            store.read(in);
+            algorithm.restore(in);
+        }
+
+        if(elect_file_finished){
+            events.close();
+        }else{
+            for(long i = 0; i < events_read; i++){
+                if(!events.next()){
+                    throw new IOException("the event file has fewer events than when the checkpoint was written");
+                }
+            }
+        }
+        orderRing();
+    }
+
+    /**
+     * Hash of the node ids and links, a checkpoint or a cached ring only fits the graph it was made from
+     */
+    private long graphHash(){
+        return RingCache.hash(store.ids, store.size(), g.offsets(), g.targets());
+    }
+
+    // ========================== PROCESSES ========================
+
+    /**
+     * Connects the processes of a run on several processes, process 0 starts the others with its
+     * own JVM options and arguments. Returns null if connected or the error
+     */
+    private String connect(String[] args){
+        if(processes == 1){
+            return null;
+        }
+        try{
+            if(process == 0){
+                List<String> command = new ArrayList<String>();
+                command.add(ProcessHandle.current().info().command().orElse("java"));
+                command.addAll(java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add("Network");
+                command.addAll(Arrays.asList(args));
+                cluster = Cluster.start(processes, command);
+            }else{
+                cluster = Cluster.join(process, processes, cluster_port);
+            }
+        }catch(IOException e){
+            return "could not connect the processes: " + e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * Ends a round with the other processes: the messages leaving the segment go to the processes
+     * either side, then the messages of the round are delivered in ring order of their senders, those
+     * of the processes before this one first (see Cluster). Process 0 logs the leaders of the round of
+     * every process in ring order. Returns true if every process was idle before delivery.
+     */
+    private boolean exchange(boolean idle) throws IOException {
+        int first = ring[0];
+        int last = ring[ring_size - 1];
+        long msg = msgToDeliver[last * DIRECTIONS + TO_NEXT];
+        if(msg != Message.NONE){
+            cluster.post(true, store.ids[last], store.ids[ghost_next], msg);
+        }
+        msg = msgToDeliver[first * DIRECTIONS + TO_PREV];
+        if(msg != Message.NONE){
+            cluster.post(false, store.ids[first], store.ids[ghost_prev], msg);
+        }
+        boolean all_idle = cluster.exchange(idle);
+        deliverReceived(0, cluster.early());
+        deliverMessages();
+        deliverReceived(cluster.early(), cluster.received());
+        collectShards();
+        logRound();
+        return all_idle;
+    }
+
+    /**
+     * Delivers the messages from i to end of those received from the processes either side, each
+     * was sent by one of the ghosts
+     */
+    private void deliverReceived(int i, int end){
+        for(; i < end; i++){
+            int v = store.indexOf(cluster.to(i));
+            int sending_n = cluster.from(i) == store.ids[ghost_prev] ? ghost_prev : ghost_next;
+            deliver(sending_n, v, cluster.msg(i), shards[v / shard_span]);
+        }
+    }
+
+    /**
+     * Process 0: writes the leaders of the round to log.txt, then what the events of the round logged
+     */
+    private void logRound() throws IOException {
+        if(process != 0){
+            return;
+        }
+        for(int i = 0; i < cluster.leaders(); i++){
+            out_file.write(leaderLine(cluster.leaderId(i), -1));
+        }
+        cluster.clearLeaders();
+        out_file.write(round_log.toString());
+        round_log.setLength(0);
+    }
+
+    /**
+     * handleEvent() with the ring split over processes. Each process does what the event means for
+     * its segment and they agree on the rest through process 0 (see Cluster.agree()):
+     *  - ELECT: the nodes of the event in the segment start an election, process 0 reports the nodes
+     *    no process has
+     *  - FAIL: the process of the failed node repairs the ring as repairRing() would (see
+     *    repairSegment) and tells the others the new ends of its segment, the processes either side
+     *    take them as their new ghosts. The first live neighbour of the failed node starts the
+     *    election, in whichever segment it is. A process only has its segment of the graph, so a
+     *    failure that needs a repair across segments or a new cycle, or that leaves a segment
+     *    without nodes, ends the simulation with an error
+     * Returns false if the simulation ends.
+     */
+    private boolean clusterEvent(EventReader events) throws IOException {
+        if(events.type() == EventReader.ELECT){
+            // where in the event the nodes started here are
+            long[] started = new long[events.nodeCount()];
+            int k = 0;
+            for(int i = 0; i < events.nodeCount(); i++){
+                int v = segmentIndex(events.node(i));
+                if(v >= 0){
+                    startElection(v);
+                    started[k++] = i;
+                }
+            }
+            boolean[] found = new boolean[events.nodeCount()];
+            for(long[] facts : cluster.agree(Arrays.copyOf(started, k))){
+                for(long i : facts){
+                    found[(int) i] = true;
+                }
+            }
+            for(int i = 0; i < found.length; i++){
+                if(!found[i]){
+                    if(process == 0){
+                        console.println("ERROR: " + events.where() + ": no live node " + events.node(i) + " to start an election");
+                    }
+                    continue;
+                }
+                elect_just_called = true;
+                if(isVerbose(Verbosity.EVENTS) && process == 0){
+                    console.println("Initiation of election; Round: " + events.round() + " Node: " + events.node(i));
+                }
+            }
+            readEvent(events);
+            return true;
+        }
+
+        int failed_id = events.node(0);
+        int failed_node = segmentIndex(failed_id);
+        long[][] all = cluster.agree(failed_node < 0 ? new long[0] : repairSegment(failed_node));
+        int owner = 0;
+        while(owner < processes && all[owner].length == 0){
+            owner++;
+        }
+        if(owner == processes){
+            if(process == 0){
+                console.println("ERROR: " + events.where() + ": no live node " + failed_id + " to fail");
+            }
+            readEvent(events);
+            return true;
+        }
+        long[] repair = all[owner];
+
+        if(first_fail){
+            round_log.append("\nPart B\n"); // after the leaders of the round
+            first_fail = false;
+            part_b = leader_count;
+        }
+        if(isVerbose(Verbosity.EVENTS) && process == 0){
+            console.println("Round " + (round+1) + ": Node " + failed_id + " Failed");
+        }
+        if(repair[0] != REPAIRED){
+            if(process == 0){
+                String why = repair[0] == EMPTIED ? "node " + failed_id + " was the last node of its segment"
+                        : repair[0] == SPLIT_WINDOW ? "the ring round node " + failed_id + " can only be repaired across segments"
+                        : "the ring round node " + failed_id + " needs a new cycle, which needs the whole graph";
+                console.println("ERROR: " + events.where() + ": " + why + ": STOPPING");
+            }
+            events.close();
+            return false;
+        }
+
+        // the processes either side take the new ends of the segment as their ghosts
+        addFailed(failed_id);
+        if(process == (owner + 1) % processes){
+            store.ids[ghost_prev] = (int) repair[END + 1 + (int) repair[END + 1] + 1];
+            rows[ghost_prev] = row(repair, 1);
+        }
+        if(process == (owner + processes - 1) % processes){
+            store.ids[ghost_next] = (int) repair[END];
+            rows[ghost_next] = row(repair, 0);
+        }
+        if(isVerbose(Verbosity.EVENTS) && process == 0){
+            console.println("Building new network ring...");
+            console.println("New ring formed: Node " + repair[1] + " linked to Node " + repair[2]);
+        }
+
+        // first neighbour of failed node still alive starts an election
+        if(repair[3] != 0){
+            int v = segmentIndex((int) repair[4]);
+            if(v >= 0){
+                startElection(v);
+            }
+        }
+        elect_just_called = true; // ensure that network does not exit early due to no messages
+        if(failed_node >= 0){
+            stopThread(failed_node); // kill failed node thread
+        }
+        readEvent(events);
+        return true;
+    }
+
+    // what repairSegment() found
+    private static final int REPAIRED = 0;
+    private static final int SPLIT_WINDOW = 1; // a local repair would move nodes between segments
+    private static final int NOT_REPAIRED = 2; // no local repair, repairRing() would search the component
+    private static final int EMPTIED = 3;
+    // where the ends of the segment start in the facts of repairSegment()
+    private static final int END = 5;
+
+    /**
+     * Takes failed node x out of the segment and repairs the ring as repairRing() would, by a splice
+     * or by rewiring a window of the ring round it (rewireWindow) if the window is in the segment,
+     * the nodes either end can be ghosts. Returns what the other processes need to know: whether it
+     * was repaired (REPAIRED, or why not), the ids of the ring neighbours of x, whether x has a live
+     * neighbour and the first of them, then the id and row of the first and of the last node of the
+     * segment
+     */
+    private long[] repairSegment(int x){
+        int pred = store.prev[x];
+        int succ = store.next[x];
+        if(ring_size == 1){
+            return new long[]{EMPTIED, store.ids[pred], store.ids[succ]};
+        }
+
+        // live nodes of the whole ring once x has gone
+        int live = ring_nodes - failed_ids.length - 1;
+        int p = ring_pos[x];
+        System.arraycopy(ring, p + 1, ring, p, ring_size - p - 1);
+        ring_size--;
+        ring_length[0]--;
+        store.next[x] = -1; // failed node no longer sends
+        store.prev[x] = -1;
+        int status = NOT_REPAIRED;
+        if(hasNeighbour(pred, store.ids[succ])){
+            store.next[pred] = succ;
+            store.prev[succ] = pred;
+            splice_repairs++;
+            status = REPAIRED;
+        }
+        for(int w = 2; w <= 8 && 2 * w + 2 <= live && status == NOT_REPAIRED; w *= 2){
+            if(!windowInSegment(pred, succ, w)){
+                status = SPLIT_WINDOW;
+            }else if(rewireWindow(0, pred, succ, w)){
+                local_repairs++;
+                status = REPAIRED;
+            }
+        }
+        if(status != REPAIRED){
+            return new long[]{status, store.ids[pred], store.ids[succ]};
+        }
+        g.fail(x);
+        algorithm.leave(getNodeByIndex(x));
+        components.remove(x);
+        orderRing();
+
+        int starter = -1;
+        for(int i = 0; i < rows[x].length && starter < 0; i++){
+            if(Arrays.binarySearch(failed_ids, rows[x][i]) < 0){
+                starter = i;
+            }
+        }
+        int first = ring[0];
+        int last = ring[ring_size - 1];
+        long[] facts = new long[END + 4 + rows[first].length + rows[last].length];
+        facts[0] = REPAIRED;
+        facts[1] = store.ids[pred];
+        facts[2] = store.ids[succ];
+        facts[3] = starter < 0 ? 0 : 1;
+        facts[4] = starter < 0 ? 0 : rows[x][starter];
+        int k = END;
+        for(int v : new int[]{first, last}){
+            facts[k++] = store.ids[v];
+            facts[k++] = rows[v].length;
+            for(int id : rows[v]){
+                facts[k++] = id;
+            }
+        }
+        return facts;
+    }
+
+    /**
+     * True if the w nodes up to pred and the w nodes from succ are all in the segment, so the window
+     * rewireWindow() takes round them has at most the ghosts at its ends
+     */
+    private boolean windowInSegment(int pred, int succ, int w){
+        for(int i = 0, n = pred, m = succ; i < w; i++){
+            if(n >= own_nodes || m >= own_nodes){
+                return false;
+            }
+            n = store.prev[n];
+            m = store.next[m];
+        }
+        return true;
+    }
+
+    /**
+     * Row i of the facts repairSegment() returns, 0 for the first node of the segment and 1 for the
+     * last
+     */
+    private static int[] row(long[] facts, int i){
+        int k = END + 1;
+        if(i == 1){
+            k += 1 + (int) facts[k] + 1;
+        }
+        int[] r = new int[(int) facts[k]];
+        for(int j = 0; j < r.length; j++){
+            r[j] = (int) facts[k + 1 + j];
+        }
+        return r;
+    }
+
+    /**
+     * True if the row of node v lists the id
+     */
+    private boolean hasNeighbour(int v, int id){
+        for(int w : rows[v]){
+            if(w == id){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Index of the live node of this segment with the given id, -1 if it is in another segment or
+     * failed
+     */
+    private int segmentIndex(int id){
+        int v = store.indexOf(id);
+        return v >= 0 && v < own_nodes && ring_pos[v] >= 0 ? v : -1;
+    }
+
+    /**
+     * Adds a node to the sorted ids of the failed nodes of all segments
+     */
+    private void addFailed(int id){
+        int i = Arrays.binarySearch(failed_ids, id);
+        if(i >= 0){
+            return;
+        }
+        i = -i - 1;
+        int[] ids = new int[failed_ids.length + 1];
+        System.arraycopy(failed_ids, 0, ids, 0, i);
+        ids[i] = id;
+        System.arraycopy(failed_ids, i, ids, i + 1, failed_ids.length - i);
+        failed_ids = ids;
+    }
+
+    /**
+     * Ends the simulation with the other processes: process 0 logs the leaders not yet logged,
+     * adds up the messages and ring repairs of all processes and returns the mailbox statistics of
+     * all of them (see mailboxStats). The other processes get null, they have nothing more to report
+     */
+    private long[] finishCluster(long[] mailbox_stats) throws IOException {
+        long[] summary = Arrays.copyOf(mailbox_stats, mailbox_stats.length + 3);
+        summary[mailbox_stats.length] = messages;
+        summary[mailbox_stats.length + 1] = splice_repairs;
+        summary[mailbox_stats.length + 2] = local_repairs;
+        long[][] all = cluster.finish(summary);
+        long[] stats = null;
+        if(all != null){
+            logRound();
+            messages = 0;
+            splice_repairs = 0;
+            local_repairs = 0;
+            stats = new long[5];
+            for(long[] s : all){
+                // first node with the largest high water mark, in ring order
+                if(s[0] > 0 && (stats[0] == 0 || s[2] > stats[2])){
+                    stats[1] = s[1];
+                    stats[2] = s[2];
+                }
+                stats[0] += s[0];
+                stats[3] += s[3];
+                stats[4] += s[4];
+                messages += s[5];
+                splice_repairs += (int) s[6];
+                local_repairs += (int) s[7];
+            }
+        }
+        cluster.close();
+        cluster = null;
+        return stats;
+    }
+
+    /**
+     * Messages waiting to be delivered this round, at most one per node and direction
+     */
+    private int pendingMessages(){
+        int pending = 0;
+        for(Shard shard : shards){
+            pending += shard.count.get();
+        }
+        return pending;
+    }
+
+    /**
+     * Splits the nodes into about the given number of shards of consecutive indexes, at most one
+     * per node. Must not be called while messages are waiting to be delivered.
+     */
+    public void setShards(int count){
+        count = Math.max(1, Math.min(count, store.size()));
+        shard_span = (store.size() + count - 1) / count;
+        count = (store.size() + shard_span - 1) / shard_span;
+        shards = new Shard[count];
+        for(int i = 0; i < count; i++){
+            shards[i] = new Shard(i, count);
+        }
+    }
+
+    /**
+     * Number of shards the nodes are split into for delivery
+     */
+    public int getShards(){
+        return shards.length;
+    }
+
+    /**
+     * The nodes with indexes first .. first + shard_span - 1, their slots of msgToDeliver and their
+     * part of senders, and the messages for the nodes of other shards collected while sending
+     */
+    private final class Shard {
+        final int id;
+        final int base; // first slot of the shard, its senders are listed from senders[base]
+        final AtomicInteger count = new AtomicInteger(); // senders this round
+        long delivered = 0; // messages received by nodes of the shard this round
+        int[] woken = new int[16]; // nodes of the shard whose mailbox was empty before this round
+        int woken_count = 0;
+
+        // messages for each other shard: sending and receiving node indexes and the message
+        final int[][] post_from;
+        final int[][] post_to;
+        final long[][] post_msg;
+        final int[] posted;
+
+        Shard(int id, int count){
+            this.id = id;
+            this.base = id * shard_span * DIRECTIONS;
+            post_from = new int[count][];
+            post_to = new int[count][];
+            post_msg = new long[count][];
+            posted = new int[count];
+        }
+
+        /**
+         * Takes the messages of the shard's nodes out of their slots and delivers them, or posts
+         * them to the receiver's shard
+         */
+        void send(){
+            int n = count.get();
+            for(int i = 0; i < n; i++){
+
+                // get node sending message and take its message out of the slot
+                int slot = senders[base + i];
+                int sending_n = slot / DIRECTIONS;
+                long msg = msgToDeliver[slot];
+                msgToDeliver[slot] = Message.NONE;
+
+                int direction = slot % DIRECTIONS;
+                if(direction == TO_NEIGHBOURS){
+                    if(!g.isAlive(sending_n)){
+                        continue; // node failed this round, message lost
+                    }
+                    for(int j = 0; j < g.degree(sending_n); j++){
+                        int w = g.neighbour(sending_n, j);
+                        if(g.isAlive(w)){
+                            route(sending_n, w, msg);
+                        }
+                    }
+                }else{
+                    // get neighbour of node in the ring
+                    int receiving_node = direction == TO_NEXT ? store.next[sending_n] : store.prev[sending_n];
+                    if(receiving_node < 0){
+                        continue; // node failed this round, message lost
+                    }
+                    route(sending_n, receiving_node, msg);
+                }
+            }
+            count.set(0); // clear list of messages after sending them
+        }
+
+        private void route(int sending_n, int receiving_node, long msg){
+            if(cluster != null && ring_pos[receiving_node] < 0){
+                return; // a ghost, the message leaves the segment in exchange()
+            }
+            int to = receiving_node / shard_span;
+            if(to == id){
+                deliver(sending_n, receiving_node, msg, this);
+                return;
+            }
+            int k = posted[to];
+            if(post_msg[to] == null || k == post_msg[to].length){
+                int length = post_msg[to] == null ? 64 : k * 2;
+                post_from[to] = post_from[to] == null ? new int[length] : Arrays.copyOf(post_from[to], length);
+                post_to[to] = post_to[to] == null ? new int[length] : Arrays.copyOf(post_to[to], length);
+                post_msg[to] = post_msg[to] == null ? new long[length] : Arrays.copyOf(post_msg[to], length);
+            }
+            post_from[to][k] = sending_n;
+            post_to[to][k] = receiving_node;
+            post_msg[to][k] = msg;
+            posted[to] = k + 1;
+        }
+
+        /**
+         * Delivers the messages the other shards posted to this one, in shard order
+         */
+        void receive(){
+            for(Shard from : shards){
+                int k = from.posted[id];
+                for(int i = 0; i < k; i++){
+                    deliver(from.post_from[id][i], from.post_to[id][i], from.post_msg[id][i], this);
+                }
+                from.posted[id] = 0;
+            }
+        }
+    }
+
+    /**
+     * Sending or receiving phase of delivery for a range of shards, split in halves across the
+     * common pool
+     */
+    private final class Deliver extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int from;
+        final int to;
+        final boolean receive;
+
+        Deliver(int from, int to, boolean receive){
+            this.from = from;
+            this.to = to;
+            this.receive = receive;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from == 1){
+                if(receive){
+                    shards[from].receive();
+                }else{
+                    shards[from].send();
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Deliver(from, mid, receive), new Deliver(mid, to, receive));
+        }
+    }
+
+    /**
+     * Hands one message to the receiving node, add to its mailbox, called by the shard of the
+     * receiving node
+     */
+    private void deliver(int sending_n, int receiving_node, long msg, Shard shard){
+        record(sending_n, receiving_node, msg);
+        boolean was_empty = store.isEmpty(receiving_node);
+        store.addMessage(receiving_node, msg);
+        shard.delivered++;
+        if(was_empty){
+            if(shard.woken_count == shard.woken.length){
+                shard.woken = Arrays.copyOf(shard.woken, shard.woken_count * 2);
+            }
+            shard.woken[shard.woken_count++] = receiving_node;
+        }
+        if(metrics != null){
+            metrics.mailboxDepth(shard.id, store.mailboxSize(receiving_node));
+        }
+    }
+
+    /**
+     * Prints or traces a message as it is delivered, as asked for with the verbosity and --trace
+     */
+    private void record(int sending_n, int receiving_node, long msg){
+        if(verbosity == Verbosity.MESSAGES){
+            console.println("Round " +  round + ": Message from Node " + store.ids[sending_n] + " to Node " + store.ids[receiving_node] + " contents: " + Message.toString(msg));
+        }
+        if(trace != null){
+            trace.record(round, store.ids[sending_n], store.ids[receiving_node], msg);
+        }
+    }
+
+    // ========================== ASYNC ENGINE ========================
+
+    /**
+     * Async engine: there are no rounds, each message is delivered when it was sent plus the delay
+     * of its link and the receiver handles it straight away. Events happen at the time of their
+     * round, after the messages due then as with the round engines. Time jumps from one delivery
+     * or event to the next, so idle time costs nothing.
+     *  - round holds the current time, printed and logged as the round
+     *  - the nodes run on the network thread one message at a time, algorithms that count rounds
+     *    (FloodMax) can not run on it
+     *  - the round measurements of the metrics are not recorded
+     */
+    private void runEvents(EventReader events) throws IOException {
+        random = new SplittableRandom(seed);
+        link_time = new int[store.size() * 2];
+        in_flight.clear();
+        while(true){
+            boolean message_next = !in_flight.isEmpty()
+                    && (elect_file_finished || in_flight.time() <= events.round() - 1);
+            if(!message_next && elect_file_finished){
+                break; // nothing in flight and no events left
+            }
+            int next = message_next ? in_flight.time() : Math.max(round, events.round() - 1);
+            if(max_rounds > 0 && next >= max_rounds){
+                round = max_rounds;
+                console.println("Round limit " + max_rounds + " reached: STOPPING");
+                round_limit = true;
+                break;
+            }
+            round = next;
+
+            if(message_next){
+                in_flight.poll();
+                events_handled++;
+                receive(in_flight.from(), in_flight.to(), in_flight.msg());
+            }else if(!handleEvent(events)){
+                break;
+            }
+
+            if(metrics != null && metrics.due(round)){
+                metrics.report(round, messages, leader_count, false);
+            }
+        }
+    }
+
+    /**
+     * Async engine: a node sends in the given direction, the message is delivered after a delay
+     * drawn for it. A message never overtakes an earlier one on the same ring link.
+     */
+    private void schedule(int index, int direction, long m){
+        if(direction == TO_NEIGHBOURS){
+            for(int j = 0; j < g.degree(index); j++){
+                int w = g.neighbour(index, j);
+                if(g.isAlive(w)){
+                    in_flight.add(round + latency(), index, w, m);
+                }
+            }
+            return;
+        }
+        int receiving_node = direction == TO_NEXT ? store.next[index] : store.prev[index];
+        if(receiving_node < 0){
+            return; // node failed, message lost
+        }
+        int link = index * 2 + direction;
+        int when = Math.max(round + latency(), link_time[link]);
+        link_time[link] = when;
+        in_flight.add(when, index, receiving_node, m);
+    }
+
+    private int latency(){
+        if(latency_min == latency_max){
+            return latency_min;
+        }
+        return latency_min + random.nextInt(latency_max - latency_min + 1);
+    }
+
+    /**
+     * Async engine: delivers a message that has arrived and lets the receiver handle it
+     */
+    private void receive(int sending_n, int receiving_node, long msg){
+        if(!g.isAlive(receiving_node)){
+            return; // receiver failed while the message was in flight
+        }
+        record(sending_n, receiving_node, msg);
+        store.addMessage(receiving_node, msg);
+        messages++;
+        if(metrics != null){
+            metrics.mailboxDepth(0, store.mailboxSize(receiving_node));
+        }
+        Node n = getNodeByIndex(receiving_node);
+        n.processMsg();
+        algorithm.endRound(n);
+    }
+
+    // ========================== END OF ASYNC ENGINE ========================
+
+    /**
+     * Points every node of the ring at its successor so delivery does not need to search the ring.
+     *  - called when the ring is first built and each time a new ring replaces it
+     */
+    private void linkRing(){
+        for(int c = 0; c < components.count(); c++){
+            linkRing(c);
+        }
+    }
+
+    /**
+     * Links the ring of component c, a ring of one node is its own successor
+     */
+    private void linkRing(int c){
+        int start = ring_start[c];
+        int n = ring_length[c];
+        for(int i = 0; i < n; i++){
+            store.next[ring[start + i]] = ring[start + (i + 1) % n];
+            store.prev[ring[start + (i + 1) % n]] = ring[start + i];
+        }
+    }
+
+    /**
+     * Removes a failed node from the ring and closes the gap, the node must already be removed from
+     * the neighbour lists. Cheapest strategy first:
+     *  - splice: the predecessor of the failed node has its successor as a neighbour, link them
+     *  - local: find a path through a window of nodes either side of the gap that starts and ends at
+     *    the nodes just outside the window, the rest of the ring is untouched. Windows grow from
+     *    2 to 8 nodes a side
+     *  - global: the failed node may have held its component together, the component is split
+     *    where it has come apart (see Components) and each part searches for a new ring of its own
+     *    with findCycle(). The rings of the other components are untouched
+     * A component no cycle can be found for gets a ring along a depth first walk instead (see
+     * ringFor). The nodes of a ring formed anew are reset (see LeaderElectionAlgorithm.reset), the
+     * components whose ring changed are listed in touched.
+     * Returns false once no live node of the ring is left.
+     */
+    private boolean repairRing(int failed_node){
+        int c = components.label(failed_node);
+        touched_count = 0;
+        if(c < 0){
+            return components.live() > 0; // never in the ring
+        }
+        touched[touched_count++] = c;
+        int pred = store.prev[failed_node];
+        int succ = store.next[failed_node];
+        store.next[failed_node] = -1; // failed node no longer sends
+        store.prev[failed_node] = -1;
+        int p = ring_pos[failed_node];
+        if(p >= 0){
+            System.arraycopy(ring, p + 1, ring, p, ring_size - p - 1);
+            ring_size--;
+            ring_length[c]--;
+            for(int d = c + 1; d < components.count(); d++){
+                ring_start[d]--;
+            }
+
+            // a ring through the rest of the component shows it is still connected
+            if(ring_length[c] >= 2 && g.hasEdge(pred, succ)){
+                store.next[pred] = succ;
+                store.prev[succ] = pred;
+                components.remove(failed_node);
+                splice_repairs++;
+                return true;
+            }
+
+            for(int w = 2; w <= 8 && 2 * w + 2 <= ring_length[c]; w *= 2){
+                if(rewireWindow(c, pred, succ, w)){
+                    components.remove(failed_node);
+                    local_repairs++;
+                    return true;
+                }
+            }
+        }
+
+        // nodes of the rest of the component in ring order, or as reached from a live neighbour of
+        // the failed node if it had no ring
+        int[][] parts = components.split(failed_node);
+        int[] rest = new int[components.size(c)];
+        if(ring_length[c] > 0){
+            int k = 0;
+            for(int i = ring_start[c]; i < ring_start[c] + ring_length[c]; i++){
+                if(components.label(ring[i]) == c){
+                    rest[k++] = ring[i];
+                }
+            }
+        }else{
+            for(int i = 0; i < g.degree(failed_node) && rest.length > 0; i++){
+                int w = g.neighbour(failed_node, i);
+                if(g.isAlive(w) && components.label(w) == c){
+                    rest = components.members(w);
+                    break;
+                }
+            }
+        }
+
+        // a ring for each part, the nodes of a part keep their order round the old ring
+        int[][] rings = new int[components.count()][];
+        rings[c] = ringFor(rest);
+        for(int[] part : parts){
+            int d = components.label(part[0]);
+            if(ring_length[c] > 0){
+                Integer[] order = new Integer[part.length];
+                for(int i = 0; i < part.length; i++){
+                    order[i] = part[i];
+                }
+                Arrays.sort(order, (x, y) -> Integer.compare(ring_pos[x], ring_pos[y]));
+                for(int i = 0; i < part.length; i++){
+                    part[i] = order[i];
+                }
+            }
+            rings[d] = ringFor(part);
+            if(touched_count == touched.length){
+                touched = Arrays.copyOf(touched, touched_count * 2);
+            }
+            touched[touched_count++] = d;
+        }
+        for(int i = ring_start[c]; i < ring_start[c] + ring_length[c]; i++){
+            store.next[ring[i]] = -1;
+            store.prev[ring[i]] = -1;
+        }
+
+        // the rings back to back in component order again
+        int[] old_start = ring_start;
+        int[] old_length = ring_length;
+        int[] old_ring = ring;
+        ring = new int[old_ring.length];
+        ring_start = new int[Math.max(components.count(), 4)];
+        ring_length = new int[ring_start.length];
+        ring_size = 0;
+        for(int d = 0; d < components.count(); d++){
+            ring_start[d] = ring_size;
+            if(rings[d] != null){
+                System.arraycopy(rings[d], 0, ring, ring_size, rings[d].length);
+                ring_length[d] = rings[d].length;
+            }else if(d < old_length.length && d != c){
+                System.arraycopy(old_ring, old_start[d], ring, ring_size, old_length[d]);
+                ring_length[d] = old_length[d];
+            }
+            ring_size += ring_length[d];
+        }
+        boolean formed = false;
+        for(int i = 0; i < touched_count; i++){
+            int d = touched[i];
+            linkRing(d);
+            formed |= ring_length[d] > 0;
+            for(int j = ring_start[d]; j < ring_start[d] + ring_length[d]; j++){
+                algorithm.reset(getNodeByIndex(ring[j]));
+            }
+        }
+        if(formed){
+            global_repairs++;
+        }
+        return components.live() > 0;
+    }
+
+    /**
+     * A ring through the nodes of a component, the hamiltonian cycle of findCycle() if there is one
+     * and otherwise the nodes in the order a depth first walk from the first of them reaches them.
+     * Consecutive nodes of that ring need not be linked, a message between them stands for its way
+     * along the branches of the walk. Null for no nodes
+     */
+    private int[] ringFor(int[] nodes){
+        int[] cycle = findCycle(nodes);
+        if(cycle != null || nodes.length == 0){
+            return cycle;
+        }
+        walk_rings++;
+        int c = components.label(nodes[0]);
+        int[] walk = new int[nodes.length];
+        int[] stack = new int[nodes.length];
+        int[] next_edge = new int[nodes.length]; // by stack position, next row entry to try
+        BitSet seen = new BitSet(store.size());
+        int k = 0;
+        int top = 0;
+        stack[0] = nodes[0];
+        seen.set(nodes[0]);
+        walk[k++] = nodes[0];
+        while(top >= 0){
+            int v = stack[top];
+            if(next_edge[top] == g.degree(v)){
+                top--;
+                continue;
+            }
+            int w = g.neighbour(v, next_edge[top]++);
+            if(g.isAlive(w) && components.label(w) == c && !seen.get(w)){
+                seen.set(w);
+                walk[k++] = w;
+                stack[++top] = w;
+                next_edge[top] = 0;
+            }
+        }
+        return walk;
+    }
+
+    /**
+     * Tries to reconnect the ring through the w nodes before the gap (ending at pred) and the w nodes
+     * after it (starting at succ). The nodes just outside the window keep their place, a path between
+     * them through every window node replaces the window. Only the ring of component c changes.
+     */
+    private boolean rewireWindow(int c, int pred, int succ, int w){
+        // window in ring order: left anchor, w nodes up to pred, w nodes from succ, right anchor
+        int[] window = new int[2 * w + 2];
+        int n = pred;
+        for(int i = w; i >= 1; i--){
+            window[i] = n;
+            n = store.prev[n];
+        }
+        window[0] = n;
+        n = succ;
+        for(int i = w + 1; i <= 2 * w; i++){
+            window[i] = n;
+            n = store.next[n];
+        }
+        window[2 * w + 1] = n;
+
+        // links between window nodes as compressed rows of window positions
+        int[] offsets = new int[window.length + 1];
+        int[] targets = new int[window.length * window.length];
+        int e = 0;
+        for(int i = 0; i < window.length; i++){
+            offsets[i] = e;
+            for(int j = 0; j < window.length; j++){
+                if(j != i && linked(window[i], window[j])){
+                    targets[e++] = j;
+                }
+            }
+        }
+        offsets[window.length] = e;
+
+        BitSet members = new BitSet(window.length);
+        members.set(0, window.length);
+        int[] local_path = new CycleFinder(offsets, targets, members).findPath(0, window.length - 1);
+        if(local_path == null){
+            return false;
+        }
+
+        // relink the window along the path and rebuild the ring list from the next pointers
+        for(int i = 0; i + 1 < local_path.length; i++){
+            store.next[window[local_path[i]]] = window[local_path[i + 1]];
+            store.prev[window[local_path[i + 1]]] = window[local_path[i]];
+        }
+        if(cluster != null){
+            // the segment starts after its ghost, which may now link to another node of the window
+            n = window[0] == ghost_prev ? window[local_path[1]] : ring[0];
+            for(int i = 0; i < ring_size; i++){
+                ring[i] = n;
+                n = store.next[n];
+            }
+            return true;
+        }
+        int i = ring_start[c];
+        int first = ring[i];
+        n = first;
+        do{
+            ring[i++] = n;
+            n = store.next[n];
+        }while(n != first);
+        return true;
+    }
+
+    /**
+     * True if there is a link from node a to node b, with the ring split over processes a row
+     * of the segment or ghost node a lists b
+     */
+    private boolean linked(int a, int b){
+        return cluster == null ? g.hasEdge(a, b) : hasNeighbour(a, store.ids[b]);
+    }
+
+    /**
+     * Method to inform the neighbours of a failed node about the event.
+     * */
+	public synchronized void informNodeFailure(int id) {
+
+	}
+
+    /**
+     * Parses the graph file into the nodes and the graph rows and stores the ring it lists.
+     *  - each line is a node id followed by the ids of its neighbours, blank lines are skipped
+     *  - the nodes are read in ring order, each node and the next (and the last and first) are
+     *    neighbours even if the file does not say so
+     *  - links are collected in growable arrays then packed into the graph rows by Graph
+     *  - malformed lines are reported with the file name and line number
+     */
+    private void parseFile(String fileName) throws IOException {
+        InputReader in = new InputReader(fileName);
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        int edges = 0;
+        BitSet in_ring = new BitSet();
+
+        int prev = -1;
+        while(in.nextLine()){
+            if(!in.hasNext()){
+                continue;
+            }
+
+            // get first node, created if not already seen as a neighbour
+            int n = indexInMap(in.nextInt());
+            if(in_ring.get(n)){
+                in.close();
+                throw in.error("node " + store.ids[n] + " is listed twice");
+            }
+            in_ring.set(n);
+
+            // add rest of nodes as neighbours
+            while(in.hasNext()){
+                if(edges == from.length){
+                    from = Arrays.copyOf(from, from.length * 2);
+                    to = Arrays.copyOf(to, from.length);
+                }
+                from[edges] = n;
+                to[edges++] = indexInMap(in.nextInt());
+            }
+
+            // add node to ring
+            if(ring_size == ring.length){
+                ring = Arrays.copyOf(ring, ring_size * 2);
+            }
+            ring[ring_size++] = n;
+            prev = n;
+        }
+        in.close();
+
+        if(ring_size == 0){
+            throw new IOException(fileName + ": no nodes");
+        }
+
+        // consecutive nodes of the ring are neighbours, including the last and first
+        // (duplicates are dropped when the graph is built)
+        if(edges + 2 * ring_size > from.length){
+            from = Arrays.copyOf(from, edges + 2 * ring_size);
+            to = Arrays.copyOf(to, from.length);
+        }
+        for(int i = 0; i < ring_size; i++){
+            int n = ring[i];
+            from[edges] = prev;
+            to[edges++] = n;
+            from[edges] = n;
+            to[edges++] = prev;
+            prev = n;
+        }
+        ring = Arrays.copyOf(ring, store.size()); // a new ring can take in any node of the graph
+
+        g = new Graph(store.size(), from, to, edges);
+    }
+
+    /**
+     * Parses the segment of the graph file this process holds when the ring is split over processes,
+     * as parseFile() parses the whole file. Of the n lines of nodes process p of k holds lines
+     * p * n / k .. (p + 1) * n / k - 1, and the lines either side as its ghosts
+     *  - the nodes of the segment then the two ghosts are the nodes of the network, the nodes of other
+     *    segments are only known by their ids
+     *  - rows has the neighbour ids of each of them, the nodes either side in the file included as
+     *    parseFile() adds them, in the order of the graph rows of one process: by where each id first
+     *    appears in the file. Ids without a line of their own are left out, they are never in the ring
+     *  - the graph only links the nodes of the network
+     *  - the file is read three times: to count the lines, to read the segment and to find where the
+     *    ids of its rows first appear
+     */
+    private void parseSegment(String fileName) throws IOException {
+        InputReader in = new InputReader(fileName);
+        int n = 0;
+        while(in.nextLine()){
+            if(in.hasNext()){
+                n++;
+            }
+        }
+        in.close();
+        if(n < processes){
+            throw new IOException(fileName + ": " + n + " nodes, fewer than the " + processes + " processes");
+        }
+        int lo = (int) ((long) process * n / processes);
+        int hi = (int) ((long) (process + 1) * n / processes);
+
+        // lines lo - 2 .. hi + 1 round the ring by slot: the id of each, and the neighbours listed on
+        // lines lo - 1 .. hi. A small ring can have a line in several slots
+        int slots = hi - lo + 4;
+        int[] line_ids = new int[slots];
+        int[][] listed = new int[slots][];
+        int[] neighbours = new int[16];
+        in = new InputReader(fileName);
+        for(int line = 0; in.nextLine(); ){
+            if(!in.hasNext()){
+                continue;
+            }
+            int slot = ((line - lo + 2) % n + n) % n;
+            line++;
+            if(slot >= slots){
+                continue;
+            }
+            int id = in.nextInt();
+            int k = 0;
+            while(in.hasNext()){
+                if(k == neighbours.length){
+                    neighbours = Arrays.copyOf(neighbours, k * 2);
+                }
+                neighbours[k++] = in.nextInt();
+            }
+            for(; slot < slots; slot += n){
+                line_ids[slot] = id;
+                if(slot >= 1 && slot <= slots - 2){
+                    listed[slot] = Arrays.copyOf(neighbours, k);
+                }
+            }
+        }
+        in.close();
+
+        // ids the rows can hold, ranked by where they first appear, and whether they have a line
+        int total = slots;
+        for(int j = 1; j <= slots - 2; j++){
+            total += listed[j].length;
+        }
+        int[] known = Arrays.copyOf(line_ids, total);
+        total = slots;
+        for(int j = 1; j <= slots - 2; j++){
+            System.arraycopy(listed[j], 0, known, total, listed[j].length);
+            total += listed[j].length;
+        }
+        Arrays.sort(known);
+        int distinct = 0;
+        for(int i = 0; i < known.length; i++){
+            if(distinct == 0 || known[distinct - 1] != known[i]){
+                known[distinct++] = known[i];
+            }
+        }
+        known = Arrays.copyOf(known, distinct);
+        int[] rank = new int[distinct];
+        Arrays.fill(rank, -1);
+        boolean[] has_line = new boolean[distinct];
+        int ranked = 0;
+        in = new InputReader(fileName);
+        while(in.nextLine()){
+            for(boolean first = true; in.hasNext(); first = false){
+                int i = Arrays.binarySearch(known, in.nextInt());
+                if(i >= 0){
+                    if(rank[i] < 0){
+                        rank[i] = ranked++;
+                    }
+                    has_line[i] |= first;
+                }
+            }
+        }
+        in.close();
+
+        // the nodes, the segment in ring order then the ghosts
+        for(int j = 2; j < slots - 2; j++){
+            if(store.indexOf(line_ids[j]) >= 0){
+                throw new IOException(fileName + ": node " + line_ids[j] + " is listed twice");
+            }
+            store.add(line_ids[j]);
+        }
+        own_nodes = store.size();
+        ring_nodes = n;
+        ghost_prev = store.add(line_ids[1]);
+        ghost_next = store.add(line_ids[slots - 2]);
+        ring = new int[own_nodes];
+        for(int v = 0; v < own_nodes; v++){
+            ring[v] = v;
+        }
+        ring_size = own_nodes;
+
+        // rows, and the links between the nodes of the network
+        rows = new int[store.size()][];
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int edges = 0;
+        long[] keys = new long[16];
+        for(int j = 1; j <= slots - 2; j++){
+            int v = j == 1 ? ghost_prev : j == slots - 2 ? ghost_next : j - 2;
+            if(keys.length < listed[j].length + 2){
+                keys = new long[listed[j].length + 2];
+            }
+            int k = 0;
+            for(int i = -1; i <= listed[j].length; i++){
+                int id = i < 0 ? line_ids[j - 1] : i == listed[j].length ? line_ids[j + 1] : listed[j][i];
+                int r = Arrays.binarySearch(known, id);
+                if(id != line_ids[j] && has_line[r]){
+                    keys[k++] = (long) rank[r] << 32 | (id & 0xffffffffL);
+                }
+            }
+            Arrays.sort(keys, 0, k);
+            int[] row = new int[k];
+            int m = 0;
+            for(int i = 0; i < k; i++){
+                if(i == 0 || keys[i] != keys[i - 1]){
+                    row[m++] = (int) keys[i];
+                }
+            }
+            rows[v] = Arrays.copyOf(row, m);
+            for(int id : rows[v]){
+                int w = store.indexOf(id);
+                if(w >= 0){
+                    if(edges == from.length){
+                        from = Arrays.copyOf(from, edges * 2);
+                        to = Arrays.copyOf(to, edges * 2);
+                    }
+                    from[edges] = v;
+                    to[edges++] = w;
+                }
+            }
+        }
+        g = new Graph(store.size(), from, to, edges);
+    }
+
+    // ========================== FINDING CYCLES ========================
+
+    /**
+     * Function tries to find a hamiltonian cycle in the graph through the nodes of the ring, true if
+     * there is one
+     */
+    boolean findFullCycle(){
+        return findCycle(Arrays.copyOf(ring, ring_size)) != null;
+    }
+
+    /**
+     * Searches for a hamiltonian cycle through the given nodes starting at the first of them, null if
+     * there is none or the search ran out of time
+     *  - the graph rows are handed to CycleFinder, only the given nodes are members
+     *  - the current successors are preferred so the new ring changes as little as possible
+     *  - a single node is a ring of its own
+     *  - with a ring cache the search is looked up there first and its answer stored, one that ran
+     *    out of time only answers searches with no larger budget
+     */
+    private int[] findCycle(int[] nodes){
+        if(nodes.length <= 1){
+            return nodes.length == 1 ? nodes : null;
+        }
+        BitSet members = new BitSet(store.size());
+        int[] prefer = new int[store.size()];
+        Arrays.fill(prefer, -1);
+        for(int n : nodes){
+            members.set(n);
+            prefer[n] = store.next[n];
+        }
+
+        long key = 0;
+        if(ring_cache != null){
+            key = RingCache.key(graph_hash, nodes, prefer, nodes[0]);
+            try{
+                int[] cached = ring_cache.get(key, nodes, g.offsets(), g.targets(), ring_budget);
+                if(cached == RingCache.GAVE_UP){
+                    console.println("Ring search gave up after " + ring_budget + " ms");
+                }
+                if(cached != null){
+                    return cached.length > 0 ? cached : null;
+                }
+            }catch(IOException e){
+                console.println("ERROR: ring cache: " + e.getMessage());
+            }
+        }
+
+        CycleFinder finder = new CycleFinder(g.offsets(), g.targets(), members);
+        finder.setTimeBudget(ring_budget);
+        finder.setPreferred(prefer);
+        int[] cycle = finder.find(nodes[0]);
+
+        if(cycle == null && finder.timedOut()){
+            console.println("Ring search gave up after " + ring_budget + " ms");
+        }
+        if(ring_cache != null){
+            try{
+                ring_cache.put(key, nodes, g.offsets(), cycle, finder.timedOut() ? ring_budget : -1);
+            }catch(IOException e){
+                console.println("ERROR: ring cache: " + e.getMessage());
+            }
+        }
+        return cycle;
+    }
+
+    // ========================== END OF CYCLE CODE ========================
+
+    /**
+     * Applies one command line option (see main), returns null if it was applied or the error
+     */
+    public String setOption(String option){
+        String value = option.substring(option.indexOf('=') + 1);
+        if(option.startsWith("--engine=")){
+            if(value.equals("threaded")){
+                setEngine(Engine.THREADED);
+            }else if(value.equals("virtual")){
+                if(!Node.virtualThreadsAvailable()){
+                    return "virtual threads need Java 21 or later, this is Java " + System.getProperty("java.version");
+                }
+                setEngine(Engine.VIRTUAL);
+            }else if(value.equals("single")){
+                setEngine(Engine.SINGLE);
+            }else if(value.equals("async")){
+                setEngine(Engine.ASYNC);
+            }else{
+                return "unknown engine " + value + ", expected threaded, virtual, single or async";
+            }
+        }else if(option.startsWith("--latency=")){
+            try{
+                int dash = value.indexOf('-');
+                int min = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                int max = dash < 0 ? min : Integer.parseInt(value.substring(dash + 1));
+                if(min < 1 || max < min){
+                    return "latency must be at least 1 round, and min at most max";
+                }
+                setLatency(min, max);
+            }catch(NumberFormatException e){
+                return "latency must be a number of rounds or min-max";
+            }
+        }else if(option.startsWith("--processes=") || option.startsWith("--cluster=")){
+            int[] given = {process, processes, cluster_port};
+            String error = clusterOption(option, given);
+            if(error != null){
+                return error;
+            }
+            if(given[0] != process || given[1] != processes){
+                return "the processes decide the segment of the graph a process reads, give them to main";
+            }
+            cluster_port = given[2];
+        }else if(option.startsWith("--seed=")){
+            try{
+                seed = Long.parseLong(value);
+            }catch(NumberFormatException e){
+                return "seed must be a number";
+            }
+        }else if(option.startsWith("--clock=")){
+            if(value.equals("real")){
+                setClock(false, period);
+            }else if(value.equals("virtual")){
+                setClock(true, period);
+            }else{
+                return "unknown clock " + value + ", expected real or virtual";
+            }
+        }else if(option.startsWith("--period=")){
+            try{
+                int ms = Integer.parseInt(value);
+                if(ms < 0){
+                    return "period must not be negative";
+                }
+                setClock(virtual_clock, ms);
+            }catch(NumberFormatException e){
+                return "period must be a number of ms";
+            }
+        }else if(option.startsWith("--drain=")){
+            if(value.equals("one")){
+                setDrainAll(false);
+            }else if(value.equals("all")){
+                setDrainAll(true);
+            }else{
+                return "unknown drain policy " + value + ", expected one or all";
+            }
+        }else if(option.startsWith("--skip-idle=")){
+            if(value.equals("on")){
+                setSkipIdle(true);
+            }else if(value.equals("off")){
+                setSkipIdle(false);
+            }else{
+                return "unknown skip-idle setting " + value + ", expected on or off";
+            }
+        }else if(option.startsWith("--schedule=")){
+            if(value.equals("active")){
+                setScheduleAll(false);
+            }else if(value.equals("all")){
+                setScheduleAll(true);
+            }else{
+                return "unknown schedule " + value + ", expected active or all";
+            }
+        }else if(option.startsWith("--ring-budget=")){
+            try{
+                setRingBudget(Long.parseLong(value));
+            }catch(NumberFormatException e){
+                return "ring budget must be a number of ms";
+            }
+        }else if(option.startsWith("--ring-cache=")){
+            ring_cache_dir = value;
+            ring_cache = null;
+        }else if(option.startsWith("--ring-cache-size=")){
+            long mb;
+            try{
+                mb = Long.parseLong(value);
+            }catch(NumberFormatException e){
+                return "ring cache size must be a number of MB";
+            }
+            if(mb < 1 || mb > Long.MAX_VALUE >> 20){
+                return "ring cache size must be from 1 to " + (Long.MAX_VALUE >> 20) + " MB";
+            }
+            ring_cache_limit = mb << 20;
+        }else if(option.startsWith("--max-rounds=")){
+            try{
+                setMaxRounds(Integer.parseInt(value));
+            }catch(NumberFormatException e){
+                return "max rounds must be a number";
+            }
+        }else if(option.startsWith("--algorithm=")){
+            LeaderElectionAlgorithm algorithm = LeaderElectionAlgorithm.byName(value);
+            if(algorithm == null){
+                return "unknown algorithm " + value + ", expected cr, hs or floodmax";
+            }
+            setAlgorithm(algorithm);
+        }else if(option.startsWith("--shards=")){
+            try{
+                int count = Integer.parseInt(value);
+                if(count < 1){
+                    return "shards must be at least 1";
+                }
+                setShards(count);
+            }catch(NumberFormatException e){
+                return "shards must be a number";
+            }
+        }else if(option.startsWith("--verbosity=")){
+            if(value.equals("quiet")){
+                setVerbosity(Verbosity.QUIET);
+            }else if(value.equals("events")){
+                setVerbosity(Verbosity.EVENTS);
+            }else if(value.equals("messages")){
+                setVerbosity(Verbosity.MESSAGES);
+            }else{
+                return "unknown verbosity " + value + ", expected quiet, events or messages";
+            }
+        }else if(option.startsWith("--trace=")){
+            trace_file = value;
+        }else if(option.startsWith("--metrics=")){
+            metrics_file = value;
+        }else if(option.startsWith("--checkpoint=")){
+            checkpoint_file = value;
+        }else if(option.startsWith("--checkpoint-every=")){
+            try{
+                checkpoint_every = Integer.parseInt(value);
+            }catch(NumberFormatException e){
+                return "checkpoint interval must be a number of rounds";
+            }
+            if(checkpoint_every < 1){
+                return "checkpoint interval must be at least 1 round";
+            }
+        }else if(option.startsWith("--resume=")){
+            resume_file = value;
+        }else if(option.startsWith("--metrics-every=")){
+            try{
+                metrics_every = Integer.parseInt(value);
+            }catch(NumberFormatException e){
+                return "metrics interval must be a number of rounds";
+            }
+            if(metrics_every < 0){
+                return "metrics interval must not be negative";
+            }
+        }else{
+            return "unknown option " + option;
+        }
+        return null;
+    }
+
+    /**
+     * Applies --processes or --cluster to the process, processes and port given, returns null if
+     * it was applied or the error. Read by main before the graph file (see parseSegment)
+     */
+    static String clusterOption(String option, int[] cluster){
+        String value = option.substring(option.indexOf('=') + 1);
+        if(option.startsWith("--processes=")){
+            try{
+                int count = Integer.parseInt(value);
+                if(count < 1 || count > MAX_PROCESSES){
+                    return "processes must be from 1 to " + MAX_PROCESSES;
+                }
+                cluster[1] = count;
+            }catch(NumberFormatException e){
+                return "processes must be a number";
+            }
+        }else{
+            // given by process 0 to the processes it starts: process/processes:port
+            try{
+                int slash = value.indexOf('/');
+                int colon = value.indexOf(':');
+                cluster[0] = Integer.parseInt(value.substring(0, slash));
+                cluster[1] = Integer.parseInt(value.substring(slash + 1, colon));
+                cluster[2] = Integer.parseInt(value.substring(colon + 1));
+            }catch(RuntimeException e){
+                return "cluster must be process/processes:port";
+            }
+            if(cluster[0] < 0 || cluster[0] >= cluster[1] || cluster[1] > MAX_PROCESSES){
+                return "cluster must be process/processes:port with process below processes";
+            }
+        }
+        return null;
+    }
+
+    /*
+    *  Checks args and creates network the runs the simulation
+    *   - optional arguments after the two files:
+    *       --engine=threaded|virtual|single|async  how the nodes are run each round: a platform
+    *                                   thread per node, a virtual thread per node (Java 21 and later)
+    *                                   or all from the network thread, or async: discrete events
+    *                                   with a delay per message instead of rounds (default threaded)
+    *       --latency=d|min-max         async engine, delay of each message in rounds: d, or drawn
+    *                                   uniformly from min to max (default 1)
+    *       --seed=n                    seed of the random latencies (default 1)
+    *       --processes=k               split the ring into k segments run by k processes on this
+    *                                   machine, each reads and holds only its segment of the graph and
+    *                                   swaps messages with the segments either side over loopback each
+    *                                   round (see Cluster). Ring algorithms only, and a failure must
+    *                                   be repaired within its segment. Each process writes its own
+    *                                   trace and metrics, process p > 0 to file.p (default 1)
+    *       --clock=real|virtual        pace rounds in real time or run them back to back (default real)
+    *       --period=ms                 length of a round with the real clock (default 20)
+    *       --drain=one|all             messages a node handles per round (default one)
+    *       --skip-idle=on|off          jump over rounds with no messages in flight to the round of
+    *                                   the next event (default on)
+    *       --schedule=active|all       run only the nodes with messages or that the algorithm needs
+    *                                   each round, or every node of the ring (default active)
+    *       --ring-budget=ms            time allowed for each search for a ring (default 2000)
+    *       --ring-cache=dir            keep the rings found in dir and use them instead of searching
+    *                                   again for the same graph and failed nodes (see RingCache)
+    *       --ring-cache-size=MB        most the ring cache may hold, the entries used longest ago
+    *                                   are deleted to make room (default 64)
+    *       --algorithm=cr|hs|floodmax  election run by the nodes: Chang-Roberts, Hirschberg-Sinclair
+    *                                   or FloodMax over the graph (default cr)
+    *       --max-rounds=n              stop after n rounds, 0 for no limit (default 0)
+    *       --shards=n                  split the nodes into n shards delivered in parallel (default
+    *                                   one per 4096 nodes up to 16), a resumed run keeps the shards
+    *                                   of its checkpoint
+    *       --verbosity=quiet|events|messages  what is printed while running: nothing but errors and
+    *                                   the summary, also elections, failures and leaders, also every
+    *                                   message delivered (default messages)
+    *       --trace=file                write every message delivered to a binary trace file, read
+    *                                   it with java TraceDecoder file
+    *       --metrics=file              write round, delivery and election measurements to file as
+    *                                   JSON lines (see Metrics), at the end of the run
+    *       --metrics-every=n           also write them every n rounds (default 0, only at the end)
+    *       --checkpoint=file           write the state of the simulation to file every n rounds (see
+    *                                   Snapshot), round engines in one process only
+    *       --checkpoint-every=n        rounds between checkpoints (default 10000)
+    *       --resume=file               go on from a checkpoint written with the same graph, event
+    *                                   file and algorithm, as if the run had not stopped. The
+    *                                   trace and metrics only cover the rounds after it
+    * */
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if(args.length < 2){
+            System.out.println("Please provide files!");
+        }else{
+            //System.out.format("arg[0]: %s, arg[1]: %s\n", args[0], args[1]);
+        }
+
+        // get args
+        String ds_graph = args[0];
+        String ds_elect_fail = args[1];
 
         //check files exist
         File graph = new File(ds_graph);
@@ -480,8 +2901,43 @@ public class Network {
         if(!graph.exists()){ System.out.println("ERROR: file " + ds_graph + " does not exist!");return;}
         if(!e_f.exists()){ System.out.println("ERROR: file " + ds_elect_fail + " does not exist!");return;}
 
-        // construct the network from graph file
-        Network net = new Network(ds_graph, ds_elect_fail);
+        // the processes first, they decide the segment of the graph file this process reads
+        int[] cluster = {0, 1, 0};
+        for(int i = 2; i < args.length; i++){
+            if(args[i].startsWith("--processes=") || args[i].startsWith("--cluster=")){
+                String error = clusterOption(args[i], cluster);
+                if(error != null){
+                    System.out.println("ERROR: " + error);
+                    return;
+                }
+            }
+        }
+
+        // construct the network from graph file, the processes process 0 starts leave log.txt to it
+        Network net;
+        try{
+            BufferedWriter log = cluster[0] > 0 ? new BufferedWriter(Writer.nullWriter())
+                    : new BufferedWriter(new FileWriter("log.txt"));
+            net = new Network(ds_graph, ds_elect_fail, log, cluster[0], cluster[1]);
+        }catch(IOException e){
+            System.out.println("ERROR: " + e.getMessage());
+            return;
+        }
+
+        // parse options
+        for(int i = 2; i < args.length; i++){
+            String error = net.setOption(args[i]);
+            if(error != null){
+                System.out.println("ERROR: " + error);
+                return;
+            }
+        }
+
+        String error = net.connect(args);
+        if(error != null){
+            System.out.println("ERROR: " + error);
+            return;
+        }
 
         // start simulator
          net.NetSimulator();
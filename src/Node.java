@@ -1,59 +1,53 @@
 import java.util.*;
 import java.io.*;
-import java.util.concurrent.Semaphore;
-
-import static java.lang.Math.max;
-
-/* Class to represent a node. Each node must run on its own thread.*/
-
-public class Node extends Thread {
-
-	private BufferedWriter outfile_writer;
-
-	private int id;
-	private boolean participant = false;
-	private boolean leader = false;
-	private Network network;
-
-	// private Node next;
-    private int startedNum = 0;
-    private int leader_node = 0;
-
-    // for synchronization of rounds
-    private Semaphore nodesSemaphore = null;
-    private Semaphore netSemaphore = null;
-
-	// Neighbouring nodes
-	public List<Node> myNeighbours;
-
-	// Queues for the incoming messages
-	public List<String> incomingMsg;
-
-	// semaphores set before
-	public void setNetSemaphore(Semaphore netSemaphore) {
-		this.netSemaphore = netSemaphore;
+import java.lang.reflect.Method;
+
+/*
+Class to represent a node, a view of one node index of the network. The state of the node is kept
+by the network in a NodeStore, so a view is two fields and can be made whenever one is needed.
+
+- views of the same node are equal
+- with the threaded engines each node runs run() on a thread of its own
+*/
+
+public class Node implements Runnable {
+
+	private final Network network;
+	private final NodeStore store;
+	private final int index; // dense index of the node in the network, used to address per-node arrays
+
+	// Thread.ofVirtual() and Thread.Builder.unstarted(), looked up by reflection as the code is built
+	// for Java 11, null if this Java has no virtual threads
+	private static final Method OF_VIRTUAL;
+	private static final Method UNSTARTED;
+	static {
+		Method of_virtual = null;
+		Method unstarted = null;
+		try{
+			of_virtual = Thread.class.getMethod("ofVirtual");
+			unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+			unstarted.invoke(of_virtual.invoke(null), (Runnable) () -> {}); // preview only before Java 21
+		}catch(ReflectiveOperationException | RuntimeException e){
+			of_virtual = null;
+			unstarted = null;
+		}
+		OF_VIRTUAL = of_virtual;
+		UNSTARTED = unstarted;
 	}
 
-	public void setNodesSemaphore(Semaphore nodesSemaphore) {
-		this.nodesSemaphore = nodesSemaphore;
-	}
-
-	public Node(int id, Network network, BufferedWriter br){
-		this.id = id;
+	Node(Network network, int index){
 		this.network = network;
-		this.outfile_writer = br;
-
-		myNeighbours = new ArrayList<Node>();
-		incomingMsg = new ArrayList<String>();
+		this.store = network.getStore();
+		this.index = index;
 	}
-	
+
 	// Basic methods for the Node class
 
     /**
     * Adds message to queue by network to emulate node deciding to start an election
     */
 	public void startElection(){
-        incomingMsg.add("START_ELECT " +  id);
+        store.addMessage(index, Message.make(Message.START_ELECT, store.ids[index]));
 	}
 
 
@@ -61,174 +55,254 @@ public class Node extends Thread {
      *  Method to get the Id of a node instance
      */
 	public int getNodeId() {
-		return id;
+		return store.ids[index];
 	}
 
+    /**
+     * Dense index of the node, nodes are numbered from 0 in the order the network created them
+     */
+	public int getIndex() {
+		return index;
+	}
+
+    /**
+     * Returns the node messages are sent to, the successor in the ring, null when not in the ring
+     */
+    public Node getNext() {
+        return store.next[index] < 0 ? null : network.getNodeByIndex(store.next[index]);
+    }
+
+    /**
+     * Returns the node sending messages to this node, the predecessor in the ring
+     */
+    public Node getPrev() {
+        return store.prev[index] < 0 ? null : network.getNodeByIndex(store.prev[index]);
+    }
+
     /**
     Method to return true if the node is currently a leader
     */
 	public boolean isNodeLeader() {
-		return leader;
+		return store.leader[index];
 	}
 
 	public List<Node> getNeighbors() {
 		/*
-		Method to get the neighbours of the node
+		Method to get the neighbours of the node that have not failed, built from the network graph
 		*/
-		return myNeighbours;
+		Graph g = network.getGraph();
+		List<Node> neighbours = new ArrayList<Node>();
+		for(int i = 0; i < g.degree(index); i++){
+		    if(g.isAlive(g.neighbour(index, i))){
+		        neighbours.add(network.getNodeByIndex(g.neighbour(index, i)));
+            }
+        }
+		return neighbours;
 	}
 
 	/**
-	* Return true if supplied node is a neighbour of this node
+	* Return true if supplied node is a neighbour of this node, binary search of the graph row
 	*/
 	public boolean hasNeighbour(Node n){
-	    boolean inlist = false;
-        for(int i = 0; i < myNeighbours.size(); i++) {
-            if(myNeighbours.get(i).id == n.id ){
-                inlist = true;
-            }
-        }
-        return inlist;
+	    return network.getGraph().hasEdge(index, n.index);
     }
 
-    /**
-	* Method to add a neighbour to a node
-	*/
-	public void addNeighbour(Node n) {
-        myNeighbours.add(n);
-	}
-
     /**
      * Method that implements the reception of an incoming message by a node
      */
-	public void receiveMsg(String m) {
+	public void receiveMsg(long m) {
 		// add to incoming message list
-        incomingMsg.add(m);
+        store.addMessage(index, m);
 	}
 
+    /**
+     * Number of messages waiting in the node's mailbox
+     */
+    public int mailboxSize() {
+        return store.mailboxSize(index);
+    }
+
+    /**
+     * Drops the messages waiting in the node's mailbox
+     */
+    public void clearMailbox() {
+        store.clearMailbox(index);
+    }
+
     /*
     Method that implements the sending of a message by a node.
     The message must be delivered to its recipients through the network.
     This method need only implement the logic of the network receiving an outgoing message from a node.
     The remainder of the logic will be implemented in the network class.
     */
-    public void sendMsg(String m) {
+    public void sendMsg(long m) {
 
-		// access network and add to hash map
-        network.addMessage(id, m);
+		// access network and add to its outgoing messages
+        network.addMessage(index, Network.TO_NEXT, m);
+        store.sent[index] = true;
 	}
 
+    /**
+     * Sends a message to the predecessor in the ring, for algorithms using both directions
+     */
+    public void sendToPrev(long m) {
+        network.addMessage(index, Network.TO_PREV, m);
+        store.sent[index] = true;
+    }
+
+    /**
+     * Sends a message to every neighbour in the graph that has not failed
+     */
+    public void sendToNeighbours(long m) {
+        network.addMessage(index, Network.TO_NEIGHBOURS, m);
+        store.sent[index] = true;
+    }
+
+    /**
+     * Where the node prints its trace, the console of the network
+     */
+    public PrintStream console() {
+        return network.getConsole();
+    }
+
+    /**
+     * Id of the leader as far as this node knows
+     */
+    public int getLeaderNode() {
+        return store.leader_node[index];
+    }
+
+    /**
+     * Called by the election algorithm when the node learns who won
+     */
+    public void setLeaderNode(int leader_node) {
+        store.leader_node[index] = leader_node;
+    }
+
+    /**
+     * Called by the election algorithm when this node has won, the network records it in log.txt
+     */
+    public void declareLeader() {
+        store.leader[index] = true;
+        store.leader_node[index] = store.ids[index];
+
+        network.leaderElected(this);
+        if(network.isVerbose(Network.Verbosity.EVENTS)){
+            network.getConsole().println("Node " + getNodeId() + " elected Leader Round: " + network.getRound());
+        }
+    }
+
 	/**
-     *  Handles the different types of messages a Node could receive
-     *      - ELECT
-     *      - FORWARD
-     *      - LEADER
-     *  Sends messages triggered by the processing of a message to the network to be delivered.
+     *  Handles one message from the mailbox with the election algorithm of the network, the
+     *  START_ELECT pseudo message starts an election at this node.
+     *  Messages sent by the algorithm go to the network to be delivered.
      */
 	public void processMsg(){
-	    // do you need to handle all messages in queue can that even happen in a ring?
-
 	    // read from message buffer only read one message
-        if(incomingMsg.size() == 0){
+        if(store.isEmpty(index)){
             return;
         }
 
-        String msg  = incomingMsg.remove(0); // inefficient use queue
-
-        // parse msg
-        String msg_elems[] = msg.split(" ");
-
-        if(msg_elems.length < 2){ System.out.println("Malformed message");}
-
-        // get message type
-        String msg_type = msg_elems[0];
-
-        // handle different types of message
-        if(msg_type.equals("ELECT")){
-            int msg_node_id = Integer.parseInt(msg_elems[1]);
-            String send_msg_str = String.format("FORWARD %d", max(id, msg_node_id));
-            if(participant == false){
-                participant = true;
-                sendMsg(send_msg_str);
-            }else if(participant == true && msg_node_id > id ){
-                participant = true;
-                sendMsg(send_msg_str);
-            }else if(msg_node_id == id){
-                // this really cannot happen as election message turns into forward message?
-                leader = true;
-                leader_node = id;
-                participant = false;
-                sendMsg("LEADER " + id);
-            }else{
-                // already sent message around as participant
-                // do nothing as participant true and m.id < p.id
-
-                // if another message in queue process it could result in sending a message
-                    // case when ELECT is in queue
-            }
-        }else if(msg_type.equals("LEADER")){
-            int leader_node_id = Integer.parseInt(msg_elems[1]);
-            if(!isNodeLeader()) {
-                this.leader_node = leader_node_id;
-                participant = false;
-                // forward leader message
-                sendMsg("LEADER " + leader_node_id);
+        long msg  = store.pollMessage(index);
+
+        Metrics metrics = network.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        LeaderElectionAlgorithm algorithm = network.getAlgorithm();
+        if(Message.type(msg) == Message.START_ELECT){ // pseudo message to indicate that node needs to start election
+            algorithm.start(this);
+        }else{
+            algorithm.receive(this, msg);
+        }
+
+        if(metrics != null){
+            metrics.processed(index, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Work done by the node in one round, called by run() or directly by the network
+     * when the simulation is single threaded
+     *  - processes one message, or when the network drains all messages keeps processing until the
+     *    mailbox is empty or a message was sent, the one message per round can not be overwritten
+     *  - algorithms that send from endRound() read the whole mailbox every round
+     */
+    public void step(){
+        // process messaged
+        store.sent[index] = false;
+        processMsg();
+        LeaderElectionAlgorithm algorithm = network.getAlgorithm();
+        if(algorithm.readsWholeMailbox()){
+            while(!store.isEmpty(index)){
+                processMsg();
             }
-        }else if(msg_type.equals("FORWARD")){
-            int msg_node_id = Integer.parseInt(msg_elems[1]);
-            String send_msg_str = String.format("FORWARD %d", max(id, msg_node_id));
-            if(participant == false){
-                participant = true;
-                sendMsg(send_msg_str);
-            }else if(participant == true && id < msg_node_id){
-                sendMsg(send_msg_str);
-            }else if(msg_node_id == id){
-                leader = true;
-                leader_node = id;
-                participant = false; // stop participating as now leader this might not be wanted
-                sendMsg("LEADER " + this.id);
-
-                // leader elected write to file
-                synchronized (outfile_writer){
-                    try {
-                        outfile_writer.write("Leader Node " + this.id+ "\n");
-                    }catch (IOException e){
-                        e.printStackTrace();
-                    }
-                }
-
-                System.out.println("Node " + this.id + " elected Leader Round: " + startedNum);
-            }else{
-                // do nothing
-                // if other message in queue process it ?
+        }else if(network.isDrainAll()){
+            while(!store.sent[index] && !store.isEmpty(index)){
+                processMsg();
             }
-
-        }else if(msg_type.equals("START_ELECT")){ // pseudo message to indicate that node needs to start election
-            participant = true;
-            sendMsg("ELECT " + this.id);
         }
-        else{
-            System.out.println("MALFORMED MESSAGE"); // something when wrong
+        algorithm.endRound(this);
+    }
+
+    /**
+     * True if nodes can run on virtual threads
+     */
+    public static boolean virtualThreadsAvailable(){
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Makes the thread that runs the node's rounds, a virtual thread if asked for and available
+     */
+    Thread newThread(boolean virtual){
+        Thread thread;
+        if(virtual && OF_VIRTUAL != null){
+            try{
+                thread = (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), this);
+            }catch(ReflectiveOperationException e){
+                throw new IllegalStateException("could not create a virtual thread", e);
+            }
+            thread.setName("Node " + getNodeId());
+        }else{
+            thread = new Thread(this, "Node " + getNodeId());
         }
+        return thread;
     }
 
+    /**
+     * Rounds of the node on its own thread, the network hands out one permit of the node's
+     * semaphore per round and waits for one permit of its own from each node it let run
+     */
     @Override
     public void run(){
 	    try {
             while (true) {
-                nodesSemaphore.acquire(); // can reach here directly after acquire again
-
-                // process messaged
-                processMsg();
+                network.awaitRound(index); // one permit per round given by the network
 
-                startedNum++; // round count
+                step();
 
                 // tell Network that have finished sending messages
-                netSemaphore.release();
+                network.roundDone();
             }
         }catch (InterruptedException e){
-            System.out.println("Thread "  + this.id +  " Stopped by Network Thread");
+            if(network.isVerbose(Network.Verbosity.MESSAGES)){
+                network.getConsole().println("Thread "  + getNodeId() +  " Stopped by Network Thread");
+            }
         }
     }
 
+    @Override
+    public boolean equals(Object o){
+        return o instanceof Node && ((Node) o).network == network && ((Node) o).index == index;
+    }
+
+    @Override
+    public int hashCode(){
+        return index;
+    }
+
+    @Override
+    public String toString(){
+        return "Node " + getNodeId();
+    }
 }
@@ -0,0 +1,261 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+State of every node of a network in primitive arrays indexed by the dense node index, Node is a view
+of one index. About 50 bytes a node, 16 to 32 of them for the id map, and about 90 more for a node
+that once had two messages waiting (its Mailbox). The network adds its outgoing slots, ring and
+graph. Measured on a ring of 10 million nodes with the single engine, Chang-Roberts ran in
+-Xmx1300m, its peak is while the graph file is read, and Hirschberg-Sinclair, which gives many nodes
+a Mailbox, in -Xmx1700m.
+
+- ids and the map back from ids to indexes (open addressing, no boxing)
+- successor and predecessor in the ring, -1 when not in the ring
+- leader flag, leader known to the node and the sent flag of the current round
+- mailboxes: the oldest message of a node is kept in head, the rest only exist for nodes that had
+  more than one message waiting at once and are kept in a Mailbox of their own. Message.NONE (0)
+  is never a real message so a head of 0 is an empty mailbox
+- a node only writes its own entries, and only the shard delivering to a node adds to its mailbox,
+  so nothing is locked
+- write() and read() save and restore what a checkpoint needs (see Snapshot), the ids come from the
+  graph file and the ring links from the ring of the network
+*/
+public class NodeStore {
+
+    private static final int EMPTY = -1; // free slot of the id map
+
+    private int count = 0;
+    int[] ids = new int[16];
+    int[] next = new int[16];
+    int[] prev = new int[16];
+    boolean[] leader = new boolean[16];
+    int[] leader_node = new int[16];
+    boolean[] sent = new boolean[16];
+
+    // mailboxes
+    long[] head = new long[16];
+    private Mailbox[] more = new Mailbox[16];
+    private boolean[] used = new boolean[16]; // had a message at some point
+
+    // id -> index, linear probing over a power of two table at most half full
+    private int[] keys = new int[32];
+    private int[] values = new int[32];
+
+    public NodeStore(){
+        Arrays.fill(values, EMPTY);
+    }
+
+    /**
+     * Number of nodes, indexes run from 0 to size() - 1
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * Index of the node with the given id, -1 if there is none
+     */
+    public int indexOf(int id){
+        int mask = keys.length - 1;
+        for(int i = hash(id) & mask; ; i = (i + 1) & mask){
+            if(values[i] == EMPTY){
+                return -1;
+            }
+            if(keys[i] == id){
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * Adds a node with the given id, not yet in the ring, and returns its index
+     */
+    public int add(int id){
+        if(count == ids.length){
+            int length = count * 2;
+            ids = Arrays.copyOf(ids, length);
+            next = Arrays.copyOf(next, length);
+            prev = Arrays.copyOf(prev, length);
+            leader = Arrays.copyOf(leader, length);
+            leader_node = Arrays.copyOf(leader_node, length);
+            sent = Arrays.copyOf(sent, length);
+            head = Arrays.copyOf(head, length);
+            more = Arrays.copyOf(more, length);
+            used = Arrays.copyOf(used, length);
+        }
+        int index = count++;
+        ids[index] = id;
+        next[index] = -1;
+        prev[index] = -1;
+        if(2 * count > keys.length){
+            rehash(keys.length * 2);
+        }
+        put(id, index);
+        return index;
+    }
+
+    /**
+     * Trims the arrays to the number of nodes once they have all been added
+     */
+    public void trim(){
+        ids = Arrays.copyOf(ids, count);
+        next = Arrays.copyOf(next, count);
+        prev = Arrays.copyOf(prev, count);
+        leader = Arrays.copyOf(leader, count);
+        leader_node = Arrays.copyOf(leader_node, count);
+        sent = Arrays.copyOf(sent, count);
+        head = Arrays.copyOf(head, count);
+        more = Arrays.copyOf(more, count);
+        used = Arrays.copyOf(used, count);
+    }
+
+    // ========================== MAILBOXES ========================
+
+    public void addMessage(int v, long msg){
+        used[v] = true;
+        if(head[v] == Message.NONE){
+            head[v] = msg;
+            return;
+        }
+        if(more[v] == null){
+            more[v] = new Mailbox();
+        }
+        more[v].add(msg);
+    }
+
+    /**
+     * Removes and returns the oldest message of node v, the mailbox must not be empty
+     */
+    public long pollMessage(int v){
+        long msg = head[v];
+        Mailbox m = more[v];
+        head[v] = m != null && !m.isEmpty() ? m.poll() : Message.NONE;
+        return msg;
+    }
+
+    public boolean isEmpty(int v){
+        return head[v] == Message.NONE;
+    }
+
+    public int mailboxSize(int v){
+        if(head[v] == Message.NONE){
+            return 0;
+        }
+        return more[v] == null ? 1 : 1 + more[v].size();
+    }
+
+    public void clearMailbox(int v){
+        head[v] = Message.NONE;
+        if(more[v] != null){
+            more[v].clear();
+        }
+    }
+
+    /**
+     * Largest number of messages that were waiting at node v at the same time
+     */
+    public int highWaterMark(int v){
+        if(more[v] != null){
+            return 1 + more[v].highWaterMark();
+        }
+        return used[v] ? 1 : 0;
+    }
+
+    /**
+     * True if more messages were waiting at node v at once than a Mailbox of the default capacity
+     * holds, as the mailbox of a node had to grow when each node had one
+     */
+    public boolean grown(int v){
+        return highWaterMark(v) > Mailbox.DEFAULT_CAPACITY;
+    }
+
+    // ========================== CHECKPOINTS ========================
+
+    /**
+     * Writes the leaders, the leader each node knows and the mailboxes with their high water marks
+     */
+    public void write(DataOutput out) throws IOException {
+        Snapshot.writeBooleans(out, leader, count);
+        Snapshot.writeInts(out, leader_node, count);
+        Snapshot.writeBooleans(out, used, count);
+
+        int k = 0;
+        for(int v = 0; v < count; v++){
+            if(head[v] != Message.NONE || more[v] != null){
+                k++;
+            }
+        }
+        out.writeInt(k);
+        for(int v = 0; v < count; v++){
+            if(head[v] == Message.NONE && more[v] == null){
+                continue;
+            }
+            out.writeInt(v);
+            out.writeInt(more[v] != null ? more[v].highWaterMark() : -1);
+            out.writeInt(mailboxSize(v));
+            if(head[v] != Message.NONE){
+                out.writeLong(head[v]);
+                for(int i = 0; more[v] != null && i < more[v].size(); i++){
+                    out.writeLong(more[v].peek(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads what write() wrote into a store of the same nodes whose mailboxes are all empty
+     */
+    public void read(DataInput in) throws IOException {
+        Snapshot.readBooleans(in, leader, count);
+        Snapshot.readInts(in, leader_node, count);
+        Snapshot.readBooleans(in, used, count);
+
+        int k = in.readInt();
+        for(int i = 0; i < k; i++){
+            int v = in.readInt();
+            int high_water = in.readInt();
+            int size = in.readInt();
+            if(high_water >= 0){
+                more[v] = new Mailbox();
+            }
+            for(int j = 0; j < size; j++){
+                addMessage(v, in.readLong());
+            }
+            if(high_water >= 0){
+                more[v].raiseHighWaterMark(high_water);
+            }
+        }
+    }
+
+    // ========================== ID MAP ========================
+
+    private void put(int id, int index){
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while(values[i] != EMPTY && keys[i] != id){
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        values[i] = index;
+    }
+
+    private void rehash(int length){
+        int[] old_keys = keys;
+        int[] old_values = values;
+        keys = new int[length];
+        values = new int[length];
+        Arrays.fill(values, EMPTY);
+        for(int i = 0; i < old_keys.length; i++){
+            if(old_values[i] != EMPTY){
+                put(old_keys[i], old_values[i]);
+            }
+        }
+    }
+
+    private static int hash(int id){
+        int h = id * 0x9E3779B9; // spreads consecutive ids over the table
+        return h ^ (h >>> 16);
+    }
+}
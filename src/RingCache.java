@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/*
+Directory of the rings CycleFinder found (see Network --ring-cache), so a graph that has been searched
+before does not have to be searched again when a failure breaks the ring.
+
+- an entry answers one search, its key is a hash of the graph, of the nodes the ring goes through (the
+  live nodes of a component, so the failed nodes are part of the key), of the successors the search
+  prefers and of the node it starts at. The ring found depends on the old ring through the preferred
+  successors, with them in the key a run that hits the cache goes on exactly as one that searched
+- a search that showed there is no ring is kept too, as a ring of no nodes. So is a search that ran
+  out of time with the budget it had, it only answers searches with no more time than that as a
+  larger budget may still find a ring
+- one file per entry named by its key: a header (MAGIC, VERSION, key, the node and link counts of
+  the graph and the number of nodes searched), the budget of a search that ran out of time or -1,
+  then the ring as deltas (see Snapshot), deflated. Written to a file of its own and moved into
+  place, so runs sharing the directory never read half an entry
+- a ring read back is checked against the graph before it is used, a damaged entry or two searches
+  with the same key only cost a search. There is nothing to check a ring of no nodes against, it
+  is only taken if the key and the counts of its header match, the key mixes every id and link of
+  the graph (see hash) so two graphs that differ share a key with a chance of 2^-64
+- the entries are kept under a limit of bytes, when a new entry takes the directory over it the entries
+  used longest ago are deleted. A hit marks its entry as used
+*/
+public final class RingCache {
+
+    static final int MAGIC = 0x52434348; // "RCCH"
+    static final int VERSION = 2; // 2: the counts in the header
+    public static final long DEFAULT_LIMIT_BYTES = 64L << 20;
+
+    // answers of get() other than a ring
+    public static final int[] NONE = new int[0]; // there is no ring
+    public static final int[] GAVE_UP = new int[0]; // a search with at least as much time found none
+
+    private static final String SUFFIX = ".ring";
+
+    private final Path dir;
+    private final long limit;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Cache in the given directory, made if it does not exist, holding at most limit bytes of entries
+     */
+    public RingCache(String dir, long limit) throws IOException {
+        this.dir = Paths.get(dir);
+        this.limit = limit;
+        Files.createDirectories(this.dir);
+    }
+
+    /**
+     * Key of the search for a ring through the given nodes from start, preferring the successors in
+     * prefer (by node index, -1 for none) on the graph with the given hash. The order of the nodes
+     * does not matter, the search only sees them as a set
+     */
+    public static long key(long graph, int[] nodes, int[] prefer, int start){
+        long set = 0;
+        long preferred = 0;
+        for(int v : nodes){
+            set += mix(v);
+            preferred += mix(((long) v << 32) ^ (prefer[v] & 0xFFFFFFFFL));
+        }
+        return mix(mix(mix(graph) ^ set) ^ preferred) ^ mix(start + 0x9E3779B97F4A7C15L * nodes.length);
+    }
+
+    /**
+     * Hash of a graph, its node ids by index and its links as compressed rows. Each value is mixed
+     * into the hash in turn so it depends on the order of all of them
+     */
+    public static long hash(int[] ids, int n, int[] offsets, int[] targets){
+        long h = mix(n + 0x9E3779B97F4A7C15L);
+        for(int i = 0; i < n; i++){
+            h = mix(h ^ (ids[i] & 0xFFFFFFFFL));
+        }
+        h = mix(h ^ offsets.length);
+        for(int e : offsets){
+            h = mix(h ^ (e & 0xFFFFFFFFL));
+        }
+        h = mix(h ^ targets.length);
+        for(int w : targets){
+            h = mix(h ^ (w & 0xFFFFFFFFL));
+        }
+        return h;
+    }
+
+    /**
+     * Ring of the entry with the given key, NONE or GAVE_UP for a search with the given budget in ms
+     * that found none, null if there is no usable entry. The entry must be of a graph with as many
+     * nodes and links as these rows and of a search through as many nodes, a ring must also be a
+     * cycle through exactly the given nodes
+     */
+    public int[] get(long key, int[] nodes, int[] offsets, int[] targets, long budget) throws IOException {
+        Path file = entry(key);
+        if(!Files.exists(file)){
+            misses++;
+            return null;
+        }
+        int[] ring;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file))))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != key
+                    || in.readInt() != offsets.length - 1 || in.readInt() != offsets[offsets.length - 1]
+                    || in.readInt() != nodes.length){
+                misses++;
+                return null;
+            }
+            long gave_up = in.readLong();
+            int n = in.readInt();
+            if(n != 0 && n != nodes.length || gave_up >= 0 && gave_up < budget){
+                misses++;
+                return null;
+            }
+            if(n == 0){
+                hits++;
+                used(file);
+                return gave_up >= 0 ? GAVE_UP : NONE;
+            }
+            ring = new int[n];
+            Snapshot.readDeltas(in, ring, n);
+        }catch(EOFException | ZipException e){
+            misses++;
+            return null; // damaged, written again after the search
+        }catch(NoSuchFileException e){
+            misses++;
+            return null; // deleted by another run
+        }
+        if(!isCycle(ring, nodes, offsets, targets)){
+            misses++;
+            return null;
+        }
+        hits++;
+        used(file);
+        return ring;
+    }
+
+    /**
+     * Stores the ring a search through the given nodes of the graph with these rows found, null if it
+     * found none: gave_up is the budget in ms of a search that ran out of time, -1 for one that did
+     * not. Then deletes the entries used longest ago while the cache is over its limit
+     */
+    public void put(long key, int[] nodes, int[] offsets, int[] ring, long gave_up) throws IOException {
+        int n = ring == null ? 0 : ring.length;
+        Path file = entry(key);
+        Path tmp = Files.createTempFile(dir, Long.toHexString(key), ".tmp");
+        try{
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(Files.newOutputStream(tmp), new Deflater(Deflater.BEST_SPEED))))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(key);
+                out.writeInt(offsets.length - 1);
+                out.writeInt(offsets[offsets.length - 1]);
+                out.writeInt(nodes.length);
+                out.writeLong(ring == null ? gave_up : -1);
+                out.writeInt(n);
+                Snapshot.writeDeltas(out, ring, n);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }finally{
+            Files.deleteIfExists(tmp);
+        }
+        evict(file);
+    }
+
+    /**
+     * Searches answered from the cache
+     */
+    public long hits(){
+        return hits;
+    }
+
+    /**
+     * Searches the cache had no entry for
+     */
+    public long misses(){
+        return misses;
+    }
+
+    /**
+     * Deletes the entries used longest ago, never the one just written, until the entries fit the limit
+     */
+    private void evict(Path keep) throws IOException {
+        List<Path> entries = new ArrayList<Path>();
+        long total = 0;
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)){
+            for(Path f : files){
+                try{
+                    total += Files.size(f);
+                    entries.add(f);
+                }catch(NoSuchFileException e){
+                    // deleted by another run
+                }
+            }
+        }
+        if(total <= limit){
+            return;
+        }
+        long[] used = new long[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        for(int i = 0; i < order.length; i++){
+            order[i] = i;
+            try{
+                used[i] = Files.getLastModifiedTime(entries.get(i)).toMillis();
+            }catch(NoSuchFileException e){
+                used[i] = Long.MAX_VALUE;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        for(int i = 0; i < order.length && total > limit; i++){
+            Path f = entries.get(order[i]);
+            if(f.equals(keep)){
+                continue;
+            }
+            try{
+                total -= Files.size(f);
+                Files.delete(f);
+            }catch(NoSuchFileException e){
+                // deleted by another run
+            }
+        }
+    }
+
+    private static void used(Path file) throws IOException {
+        try{
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }catch(NoSuchFileException e){
+            // evicted by another run since, what was read is still good
+        }
+    }
+
+    private Path entry(long key){
+        return dir.resolve(String.format("%016x", key) + SUFFIX);
+    }
+
+    /**
+     * True if the ring visits each of the nodes once and each node is linked to the next
+     */
+    private static boolean isCycle(int[] ring, int[] nodes, int[] offsets, int[] targets){
+        BitSet members = new BitSet();
+        for(int v : nodes){
+            members.set(v);
+        }
+        BitSet seen = new BitSet();
+        for(int i = 0; i < ring.length; i++){
+            int v = ring[i];
+            if(v < 0 || v >= offsets.length - 1 || !members.get(v) || seen.get(v)){
+                return false;
+            }
+            seen.set(v);
+            int w = ring[(i + 1) % ring.length];
+            boolean linked = false;
+            for(int e = offsets[v]; e < offsets[v + 1] && !linked; e++){
+                linked = targets[e] == w;
+            }
+            if(!linked){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long z){
+        // splitmix64 finaliser
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/*
+Checkpoint file of a simulation (see Network --checkpoint and --resume), the state of the network at
+the start of a round, so a run resumed from it goes on exactly as the run that wrote it did.
+
+- an 8 byte header (MAGIC, VERSION) then the sections written by the network, the node store and the
+  election algorithm in that order, big endian and deflated
+- arrays are written through a byte buffer rather than an int at a time, the node state of a large
+  ring is tens of megabytes
+- written to file.tmp and moved over the file once complete, so a run stopped while writing leaves
+  the previous checkpoint whole
+*/
+public final class Snapshot {
+
+    static final int MAGIC = 0x52534e50; // "RSNP"
+    static final int VERSION = 6; // 3: hs packs its aux bits differently, 4: the shard count is kept,
+                                  // 5: rings along a walk, 6: a stronger graph hash
+
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    private Snapshot(){
+    }
+
+    /**
+     * Starts writing a checkpoint to file.tmp, finish it with commit()
+     */
+    public static DataOutputStream create(String file) throws IOException {
+        OutputStream out = new FileOutputStream(file + ".tmp");
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), CHUNK_BYTES), CHUNK_BYTES));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        return data;
+    }
+
+    /**
+     * Closes a checkpoint started with create() and moves it over the file
+     */
+    public static void commit(DataOutputStream out, String file) throws IOException {
+        out.close();
+        Files.move(Paths.get(file + ".tmp"), Paths.get(file), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a checkpoint to read, after checking its header
+     */
+    public static DataInputStream open(String file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(file)), CHUNK_BYTES));
+        try{
+            if(in.readInt() != MAGIC){
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int version = in.readInt();
+            if(version != VERSION){
+                throw new IOException(file + " is a checkpoint of version " + version + ", expected " + VERSION);
+            }
+        }catch(IOException e){
+            in.close();
+            throw e instanceof EOFException || e instanceof ZipException
+                    ? new IOException(file + " is not a checkpoint") : e;
+        }
+        return in;
+    }
+
+    /**
+     * Writes the first n ints of the array
+     */
+    public static void writeInts(DataOutput out, int[] a, int n) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(CHUNK_BYTES);
+        for(int i = 0; i < n; i++){
+            if(!b.hasRemaining()){
+                out.write(b.array(), 0, b.position());
+                b.clear();
+            }
+            b.putInt(a[i]);
+        }
+        out.write(b.array(), 0, b.position());
+    }
+
+    /**
+     * Reads n ints written by writeInts() into the start of the array
+     */
+    public static void readInts(DataInput in, int[] a, int n) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(CHUNK_BYTES);
+        for(int i = 0; i < n; ){
+            int k = Math.min(n - i, CHUNK_BYTES / 4);
+            in.readFully(b.array(), 0, 4 * k);
+            b.clear();
+            for(int j = 0; j < k; j++){
+                a[i++] = b.getInt();
+            }
+        }
+    }
+
+    /**
+     * Writes the first n ints of the array each as its difference from the one before, a ring of
+     * nodes in the order of the graph file is then a run of ones that deflates to next to nothing
+     */
+    public static void writeDeltas(DataOutput out, int[] a, int n) throws IOException {
+        int[] d = new int[Math.min(n, CHUNK_BYTES / 4)];
+        int previous = 0;
+        for(int i = 0; i < n; ){
+            int k = Math.min(n - i, d.length);
+            for(int j = 0; j < k; j++){
+                d[j] = a[i] - previous;
+                previous = a[i++];
+            }
+            writeInts(out, d, k);
+        }
+    }
+
+    /**
+     * Reads n ints written by writeDeltas() into the start of the array
+     */
+    public static void readDeltas(DataInput in, int[] a, int n) throws IOException {
+        readInts(in, a, n);
+        for(int i = 1; i < n; i++){
+            a[i] += a[i - 1];
+        }
+    }
+
+    /**
+     * Writes the first n booleans of the array, eight to a byte
+     */
+    public static void writeBooleans(DataOutput out, boolean[] a, int n) throws IOException {
+        byte[] bits = new byte[(n + 7) / 8];
+        for(int i = 0; i < n; i++){
+            if(a[i]){
+                bits[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.write(bits);
+    }
+
+    /**
+     * Reads n booleans written by writeBooleans() into the start of the array
+     */
+    public static void readBooleans(DataInput in, boolean[] a, int n) throws IOException {
+        byte[] bits = new byte[(n + 7) / 8];
+        in.readFully(bits);
+        for(int i = 0; i < n; i++){
+            a[i] = (bits[i >>> 3] & (1 << (i & 7))) != 0;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.*;
+
+/*
+Prints a binary trace written with --trace=file (see TraceWriter) as the lines the network prints
+for each message with --verbosity=messages:
+
+    java TraceDecoder <trace file> [--round=r] [--node=id]
+
+- --round=r only prints the messages delivered in round r, --node=id those sent or received by id
+*/
+public class TraceDecoder {
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1){
+            System.out.println("Usage: java TraceDecoder <trace file> [--round=r] [--node=id]");
+            return;
+        }
+
+        int only_round = -1;
+        int only_node = -1;
+        for(int i = 1; i < args.length; i++){
+            String value = args[i].substring(args[i].indexOf('=') + 1);
+            try{
+                if(args[i].startsWith("--round=")){
+                    only_round = Integer.parseInt(value);
+                }else if(args[i].startsWith("--node=")){
+                    only_node = Integer.parseInt(value);
+                }else{
+                    System.out.println("ERROR: unknown option " + args[i]);
+                    return;
+                }
+            }catch(NumberFormatException e){
+                System.out.println("ERROR: " + args[i] + " is not a number");
+                return;
+            }
+        }
+
+        if(!new File(args[0]).exists()){
+            System.out.println("ERROR: file " + args[0] + " does not exist!");
+            return;
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 1 << 16))){
+            if(in.readInt() != TraceWriter.MAGIC || in.readInt() != TraceWriter.VERSION){
+                System.out.println("ERROR: " + args[0] + " is not a trace file");
+                return;
+            }
+            StringBuilder line = new StringBuilder();
+            while(true){
+                int round;
+                try{
+                    round = in.readInt();
+                }catch(EOFException e){
+                    break;
+                }
+                int from = in.readInt();
+                int to = in.readInt();
+                long msg = in.readLong();
+                if((only_round >= 0 && round != only_round) || (only_node >= 0 && from != only_node && to != only_node)){
+                    continue;
+                }
+                line.setLength(0);
+                line.append("Round ").append(round).append(": Message from Node ").append(from)
+                    .append(" to Node ").append(to).append(" contents: ").append(Message.toString(msg));
+                out.println(line);
+            }
+        }catch(EOFException e){
+            out.flush();
+            System.out.println("ERROR: " + args[0] + " ends in the middle of a record");
+            return;
+        }
+        out.flush();
+    }
+}
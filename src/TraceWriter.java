@@ -0,0 +1,171 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+Binary trace of the messages delivered, the fast replacement for printing a line per message.
+TraceDecoder prints a trace file back as the lines the network prints.
+
+- the file is an 8 byte header (MAGIC, VERSION) then one record per message delivered:
+  round, sending node id, receiving node id as ints and the packed message (see Message) as a long,
+  big endian
+- the network thread fills a chunk in memory, full chunks go to a background thread that copies them
+  into the file through a memory mapped window, so the network thread never waits on the disk unless
+  the writer falls a whole queue of chunks behind
+- record() must only be called from one thread
+*/
+public class TraceWriter implements Closeable {
+
+    static final int MAGIC = 0x52545243; // "RTRC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 20;
+
+    private static final int CHUNK_BYTES = RECORD_BYTES * 4096;
+    private static final int CHUNKS = 4;
+    private static final long WINDOW_BYTES = 64L << 20; // size of each mapping of the file
+    private static final ByteBuffer END = ByteBuffer.allocate(0); // tells the writer thread to stop
+
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(CHUNKS);
+    private final ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(CHUNKS);
+    private final Thread writer;
+    private ByteBuffer chunk;
+    private long records = 0;
+
+    // only used by the writer thread
+    private MappedByteBuffer window = null;
+    private long written = 0; // bytes in the file
+    private volatile IOException error = null;
+
+    public TraceWriter(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        for(int i = 0; i < CHUNKS - 1; i++){
+            free.add(ByteBuffer.allocate(CHUNK_BYTES));
+        }
+        chunk = ByteBuffer.allocate(CHUNK_BYTES);
+        chunk.putInt(MAGIC).putInt(VERSION);
+
+        writer = new Thread(this::drain, "trace writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends the record of one message delivered
+     */
+    public void record(int round, int from, int to, long msg){
+        if(chunk.remaining() < RECORD_BYTES){
+            hand(chunk);
+            chunk = take(free);
+        }
+        chunk.putInt(round).putInt(from).putInt(to).putLong(msg);
+        records++;
+    }
+
+    /**
+     * Number of records written so far
+     */
+    public long records(){
+        return records;
+    }
+
+    /**
+     * Writes the records still in memory, waits for the writer thread and trims the file to its
+     * contents. Errors the writer thread had are thrown here.
+     */
+    @Override
+    public void close() throws IOException {
+        hand(chunk);
+        hand(END);
+        boolean interrupted = false;
+        while(writer.isAlive()){
+            try{
+                writer.join();
+            }catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+        window = null;
+        if(error == null){
+            channel.truncate(written); // the last window mapped past the end of the records
+        }
+        channel.close();
+        if(error != null){
+            throw error;
+        }
+    }
+
+    private void hand(ByteBuffer b){
+        boolean interrupted = false;
+        while(true){
+            try{
+                full.put(b);
+                break;
+            }catch(InterruptedException e){
+                interrupted = true; // the chunk must not be lost, keep the interrupt for the caller
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ByteBuffer take(ArrayBlockingQueue<ByteBuffer> queue){
+        boolean interrupted = false;
+        ByteBuffer b;
+        while(true){
+            try{
+                b = queue.take();
+                break;
+            }catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+        return b;
+    }
+
+    /**
+     * Writer thread: copies full chunks into the mapped window, mapping the next window of the file
+     * when one fills up. After an error chunks are still taken so the network thread never blocks.
+     */
+    private void drain(){
+        while(true){
+            ByteBuffer b = take(full);
+            if(b == END){
+                return;
+            }
+            b.flip();
+            if(error == null){
+                try{
+                    while(b.hasRemaining()){
+                        if(window == null || !window.hasRemaining()){
+                            window = channel.map(FileChannel.MapMode.READ_WRITE, written, WINDOW_BYTES);
+                        }
+                        int n = Math.min(b.remaining(), window.remaining());
+                        ByteBuffer part = b.duplicate();
+                        part.limit(b.position() + n);
+                        window.put(part);
+                        b.position(b.position() + n);
+                        written += n;
+                    }
+                }catch(IOException e){
+                    error = e;
+                }
+            }
+            b.clear();
+            free.add(b);
+        }
+    }
+}